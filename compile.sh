@@ -425,6 +425,9 @@ log "Compiling build-runfiles..."
 
 log "Compiling process-wrapper..."
 "${CC}" -o output/process-wrapper -std=c99 src/main/tools/process-wrapper.c
+
+log "Compiling spawn-helper..."
+"${CC}" -o output/spawn-helper -std=c99 -pthread src/main/tools/spawn-helper.c
 if [[ $PLATFORM == "linux" ]]; then
   log "Compiling sandbox..."
   "${CC}" -o output/namespace-sandbox -std=c99 src/main/tools/namespace-sandbox.c
@@ -437,7 +440,7 @@ touch output/client_info
 chmod 755 output/client_info
 
 log "Creating Bazel self-extracting archive..."
-TO_ZIP="libblaze.jar ${JNILIB} build-runfiles${EXE_EXT} process-wrapper${EXE_EXT} client_info build_interface_so ${MSYS_DLLS} jdk.WORKSPACE jdk.BUILD"
+TO_ZIP="libblaze.jar ${JNILIB} build-runfiles${EXE_EXT} process-wrapper${EXE_EXT} spawn-helper${EXE_EXT} client_info build_interface_so ${MSYS_DLLS} jdk.WORKSPACE jdk.BUILD"
 if [[ $PLATFORM == "linux" ]]; then
     TO_ZIP="$TO_ZIP namespace-sandbox${EXE_EXT}"
 fi
@@ -240,6 +240,11 @@ public class BuildView {
    */
   private boolean skyframeAnalysisWasDiscarded = false;
 
+  /**
+   * The keys of the top-level targets configured by the last call to {@link #update}.
+   */
+  private ImmutableList<ConfiguredTargetKey> topLevelTargetKeys = ImmutableList.of();
+
   @VisibleForTesting
   public Set<SkyKey> getSkyframeEvaluatedTargetKeysForTesting() {
     return skyframeBuildView.getEvaluatedTargetKeys();
@@ -630,6 +635,8 @@ public class BuildView {
           }
         });
 
+    topLevelTargetKeys = ImmutableList.copyOf(targetSpecs);
+
     prepareToBuild(new SkyframePackageRootResolver(skyframeExecutor));
     skyframeBuildView.setWarningListener(warningsHandler);
     skyframeExecutor.injectWorkspaceStatusData();
@@ -907,6 +914,21 @@ public class BuildView {
     });
   }
 
+  /**
+   * Returns the package roots of the packages in the transitive closure of the targets configured
+   * by the last call to {@link #update}, and sets them as the artifact roots. With
+   * {@code --experimental_interleave_loading_and_analysis}, these packages are loaded during the
+   * analysis, so the loading phase only knows the roots of the top-level targets' packages.
+   */
+  public ImmutableMap<PackageIdentifier, Path> setArtifactRootsOfConfiguredTargets()
+      throws InterruptedException {
+    ImmutableMap<PackageIdentifier, Path> packageRoots =
+        skyframeExecutor.getPackageRoots(topLevelTargetKeys);
+    cumulativePackageRoots.putAll(packageRoots);
+    setArtifactRoots(packageRoots);
+    return packageRoots;
+  }
+
   /**
    * Sets the possible artifact roots in the artifact factory. This allows the
    * factory to resolve paths with unknown roots to artifacts.
@@ -499,8 +499,10 @@ public abstract class DependencyResolver {
         try {
           toTarget = getTarget(label);
         } catch (NoSuchThingException e) {
-          throw new IllegalStateException("not found: " + label + " from " + rule + " in "
-              + attribute.getName());
+          // The loading phase rules this out unless the packages are loaded during the analysis.
+          // Depend on the missing target anyway, so that its error is reported for this rule.
+          outgoingEdges.put(entry.getKey(), new Dependency(label, config));
+          continue;
         }
         if (toTarget == null) {
           continue;
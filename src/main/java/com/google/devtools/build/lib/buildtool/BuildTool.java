@@ -201,8 +201,14 @@ public class BuildTool {
 
       // Execution phase.
       if (needsExecutionPhase(request.getBuildOptions())) {
+        ImmutableMap<PackageIdentifier, Path> packageRoots = loadingResult.getPackageRoots();
+        if (request.getLoadingOptions().interleaveLoadingAndAnalysis) {
+          // The packages in the transitive closure were loaded by the analysis phase, so their
+          // roots are only known now; discovered inputs and the symlink forest need them.
+          packageRoots = getView().setArtifactRootsOfConfiguredTargets();
+        }
         executionTool.executeBuild(analysisResult, result, runtime.getSkyframeExecutor(),
-            configurations, mergePackageRoots(loadingResult.getPackageRoots(),
+            configurations, mergePackageRoots(packageRoots,
             runtime.getSkyframeExecutor().getPackageRoots()));
       }
 
@@ -202,6 +202,14 @@ public class ExecutionOptions extends OptionsBase {
   )
   public int localTestJobs;
 
+  @Option(name = "experimental_local_spawn_helper",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, local spawns are started by a small helper process that is launched once "
+          + "per server, instead of being forked from the Blaze server itself. This reduces the "
+          + "cost of starting processes when the server has a large heap.")
+  public boolean useLocalSpawnHelper;
+
   public boolean usingLocalTestJobs() {
     return localTestJobs != 0;
   }
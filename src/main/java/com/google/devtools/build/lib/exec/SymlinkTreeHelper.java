@@ -13,23 +13,41 @@
 // limitations under the License.
 package com.google.devtools.build.lib.exec;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.actions.AbstractAction;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.BaseSpawn;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.analysis.SymlinkTreeAction;
 import com.google.devtools.build.lib.analysis.config.BinTools;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.util.CommandBuilder;
 import com.google.devtools.build.lib.util.OsUtils;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Helper class responsible for the symlink tree creation.
@@ -47,6 +65,23 @@ public final class SymlinkTreeHelper {
    */
   public static final ResourceSet RESOURCE_SET = ResourceSet.createWithRamCpuIo(1000, 0.5, 0.75);
 
+  /**
+   * Trees are always updated in-process if at most this many entries changed, and otherwise only
+   * if at most {@link #MAX_INCREMENTAL_FRACTION} of the entries changed. Beyond that, scanning the
+   * whole tree in build-runfiles is cheaper.
+   */
+  private static final int MIN_INCREMENTAL_CHANGES = 1000;
+  private static final double MAX_INCREMENTAL_FRACTION = 0.25;
+
+  /**
+   * The output manifests written by build-runfiles or by {@link #updateSymlinksIncrementally}
+   * during the lifetime of this server, by tree root. A tree is only updated in-process if its
+   * manifest is the one recorded here; otherwise it may have been written by an earlier server or
+   * by an interrupted run, and the tree is left to build-runfiles.
+   */
+  private static final ConcurrentMap<Path, ManifestStamp> writtenManifests =
+      new ConcurrentHashMap<>();
+
   private final PathFragment inputManifest;
   private final PathFragment symlinkTreeRoot;
   private final boolean filesetTree;
@@ -82,17 +117,27 @@ public final class SymlinkTreeHelper {
    */
   public void createSymlinksUsingCommand(Path execRoot,
       BuildConfiguration config, BinTools binTools) throws CommandException {
+    if (updateSymlinksIncrementally(execRoot)) {
+      return;
+    }
     List<String> argv = getSpawnArgumentList(execRoot, binTools);
 
     CommandBuilder builder = new CommandBuilder();
     builder.addArgs(argv);
     builder.setWorkingDir(execRoot);
     builder.build().execute();
+    try {
+      recordOutputManifest(execRoot);
+    } catch (IOException e) {
+      // The next update runs build-runfiles again.
+    }
   }
 
   /**
-   * Creates symlink tree using appropriate method. At this time tree
-   * always created using build-runfiles helper application.
+   * Creates symlink tree using appropriate method. If the manifest of the
+   * existing tree is available and only a few entries changed, the tree is
+   * updated in-process. Otherwise it is created using the build-runfiles
+   * helper application.
    *
    * Note: method may try to acquire resources - meaning that it would
    * block for undetermined period of time. If it is interrupted during
@@ -104,6 +149,9 @@ public final class SymlinkTreeHelper {
    */
   public void createSymlinks(AbstractAction action, ActionExecutionContext actionExecutionContext,
       BinTools binTools) throws ExecException, InterruptedException {
+    if (updateSymlinksIncrementally(actionExecutionContext.getExecutor().getExecRoot())) {
+      return;
+    }
     List<String> args = getSpawnArgumentList(
         actionExecutionContext.getExecutor().getExecRoot(), binTools);
     try {
@@ -114,6 +162,220 @@ public final class SymlinkTreeHelper {
     } finally {
       ResourceManager.instance().releaseResources(action, RESOURCE_SET);
     }
+    try {
+      recordOutputManifest(actionExecutionContext.getExecutor().getExecRoot());
+    } catch (IOException e) {
+      // The next update runs build-runfiles again.
+    }
+  }
+
+  /**
+   * Tries to bring the symlink tree up to date by applying the difference between the manifest of
+   * the existing tree and the input manifest. The output manifest is written only after the tree
+   * was completely created, by build-runfiles or by this method, and is only used if it is the one
+   * recorded by {@link #recordOutputManifest}. Only the entries that change are checked against
+   * it, so that the cost is proportional to the number of changes rather than to the size of the
+   * tree.
+   *
+   * @return true if the tree is up to date, false if it has to be created by build-runfiles,
+   *     e.g. because the manifest of the existing tree is unavailable or too much has changed
+   */
+  @VisibleForTesting
+  boolean updateSymlinksIncrementally(Path execRoot) {
+    Path treeRoot = execRoot.getRelative(symlinkTreeRoot);
+    Path outputManifest = treeRoot.getChild("MANIFEST");
+    Path previousManifest = treeRoot.getChild(SymlinkTreeAction.PREVIOUS_MANIFEST);
+    // Whatever happens below, the tree is only trusted again once its manifest is recorded anew.
+    ManifestStamp recorded = writtenManifests.remove(treeRoot);
+    try {
+      if (outputManifest.exists()) {
+        // Handle the previous manifest like the current one from now on, so that we fall back to
+        // build-runfiles if anything goes wrong below.
+        outputManifest.renameTo(previousManifest);
+      } else if (!previousManifest.exists()) {
+        return false;
+      }
+      FileStatus previousStatus = previousManifest.statIfFound(Symlinks.NOFOLLOW);
+      if (recorded == null || previousStatus == null
+          || !recorded.equals(new ManifestStamp(previousStatus))) {
+        return false;
+      }
+
+      // Invalid manifests are left to build-runfiles, which reports the error.
+      Map<String, String> oldEntries = readManifest(previousManifest);
+      Map<String, String> newEntries = readManifest(execRoot.getRelative(inputManifest));
+      MapDifference<String, String> diff = Maps.difference(oldEntries, newEntries);
+      int changes = diff.entriesOnlyOnLeft().size() + diff.entriesOnlyOnRight().size()
+          + diff.entriesDiffering().size();
+      if (changes > MIN_INCREMENTAL_CHANGES
+          && changes > newEntries.size() * MAX_INCREMENTAL_FRACTION) {
+        return false;
+      }
+
+      // Entries that were modified since the manifest was written are left to build-runfiles.
+      for (Map.Entry<String, String> entry : Iterables.concat(
+          diff.entriesOnlyOnLeft().entrySet(), getLeftValues(diff).entrySet())) {
+        if (!isEntry(treeRoot.getRelative(entry.getKey()), entry.getValue())) {
+          return false;
+        }
+      }
+      for (String link : Iterables.concat(
+          diff.entriesOnlyOnLeft().keySet(), diff.entriesDiffering().keySet())) {
+        treeRoot.getRelative(link).delete();
+      }
+      // Children sort after their parents, so this removes directories bottom-up.
+      Set<String> oldDirectories = getParentDirectories(oldEntries.keySet());
+      Set<String> newDirectories = getParentDirectories(newEntries.keySet());
+      for (String dir : Ordering.natural().reverse().sortedCopy(
+          Sets.difference(oldDirectories, newDirectories))) {
+        // Fails if the directory is not empty, i.e. the tree is not what we expected.
+        treeRoot.getRelative(dir).delete();
+      }
+      for (String dir : Ordering.natural().sortedCopy(
+          Sets.difference(newDirectories, oldDirectories))) {
+        treeRoot.getRelative(dir).createDirectory();
+      }
+      for (Map.Entry<String, String> entry : Iterables.concat(
+          diff.entriesOnlyOnRight().entrySet(), getRightValues(diff).entrySet())) {
+        Path link = treeRoot.getRelative(entry.getKey());
+        if (link.exists(Symlinks.NOFOLLOW)) {
+          return false;
+        }
+        if (entry.getValue().isEmpty()) {
+          FileSystemUtils.createEmptyFile(link);
+          link.chmod(0555);
+        } else {
+          link.createSymbolicLink(new PathFragment(entry.getValue()));
+        }
+      }
+
+      // Like build-runfiles, write the manifest last and atomically.
+      Path tempManifest = treeRoot.getChild("MANIFEST.tmp");
+      FileSystemUtils.copyFile(execRoot.getRelative(inputManifest), tempManifest);
+      tempManifest.renameTo(outputManifest);
+      recordOutputManifest(execRoot);
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      // Either way, the previous manifest no longer describes the tree.
+      try {
+        previousManifest.delete();
+      } catch (IOException e) {
+        // build-runfiles removes it as an extraneous file.
+      }
+    }
+  }
+
+  /**
+   * Returns true if the given path is the entry of a manifest with the given target.
+   */
+  private static boolean isEntry(Path link, String target) throws IOException {
+    return target.isEmpty()
+        ? link.isFile(Symlinks.NOFOLLOW)
+        : link.isSymbolicLink() && link.readSymbolicLink().getPathString().equals(target);
+  }
+
+  /**
+   * Remembers the output manifest of the tree, which must describe the tree completely, so that
+   * the next update can trust it.
+   */
+  @VisibleForTesting
+  void recordOutputManifest(Path execRoot) throws IOException {
+    Path treeRoot = execRoot.getRelative(symlinkTreeRoot);
+    FileStatus status = treeRoot.getChild("MANIFEST").statIfFound(Symlinks.NOFOLLOW);
+    if (status != null) {
+      writtenManifests.put(treeRoot, new ManifestStamp(status));
+    }
+  }
+
+  /**
+   * The identity of a manifest file: its inode, size and modification time. Renaming the file
+   * keeps it; rewriting the file almost certainly changes it.
+   */
+  private static final class ManifestStamp {
+    private final long nodeId;
+    private final long size;
+    private final long lastModifiedTime;
+
+    ManifestStamp(FileStatus status) throws IOException {
+      this.nodeId = status.getNodeId();
+      this.size = status.getSize();
+      this.lastModifiedTime = status.getLastModifiedTime();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ManifestStamp)) {
+        return false;
+      }
+      ManifestStamp other = (ManifestStamp) obj;
+      return nodeId == other.nodeId && size == other.size
+          && lastModifiedTime == other.lastModifiedTime;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(nodeId, size, lastModifiedTime);
+    }
+  }
+
+  /**
+   * Reads a manifest as written by build-runfiles into a map from link to target. The target of
+   * empty files is the empty string. Throws IOException for the lines build-runfiles rejects.
+   */
+  private Map<String, String> readManifest(Path manifest) throws IOException {
+    Map<String, String> entries = new HashMap<>();
+    int lineNumber = 0;
+    for (String line : FileSystemUtils.iterateLinesAsLatin1(manifest)) {
+      lineNumber++;
+      // Every other line of a fileset manifest is metadata.
+      if (filesetTree && lineNumber % 2 == 0) {
+        continue;
+      }
+      int space = line.indexOf(' ');
+      if (space < 0 || line.startsWith("/") || line.indexOf(' ', space + 1) >= 0) {
+        throw new IOException("malformed manifest line " + lineNumber + " in " + manifest);
+      }
+      String target = line.substring(space + 1);
+      // Like build-runfiles without --allow_relative, also accept Windows paths such as C:/foo.
+      if (!filesetTree && !target.isEmpty() && !target.startsWith("/")
+          && !(target.length() > 1 && target.charAt(1) == ':')) {
+        throw new IOException("relative target on manifest line " + lineNumber + " in " + manifest);
+      }
+      entries.put(line.substring(0, space), target);
+    }
+    return entries;
+  }
+
+  private static Set<String> getParentDirectories(Iterable<String> links) {
+    Set<String> result = new HashSet<>();
+    for (String link : links) {
+      for (int i = link.lastIndexOf('/'); i > 0; i = link.lastIndexOf('/', i - 1)) {
+        if (!result.add(link.substring(0, i))) {
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static Map<String, String> getLeftValues(MapDifference<String, String> diff) {
+    Map<String, String> result = new HashMap<>();
+    for (Map.Entry<String, MapDifference.ValueDifference<String>> entry
+        : diff.entriesDiffering().entrySet()) {
+      result.put(entry.getKey(), entry.getValue().leftValue());
+    }
+    return result;
+  }
+
+  private static Map<String, String> getRightValues(MapDifference<String, String> diff) {
+    Map<String, String> result = new HashMap<>();
+    for (Map.Entry<String, MapDifference.ValueDifference<String>> entry
+        : diff.entriesDiffering().entrySet()) {
+      result.put(entry.getKey(), entry.getValue().rightValue());
+    }
+    return result;
   }
 
   /**
@@ -0,0 +1,277 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.graph;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable directed graph whose nodes are numbered 0..n-1 in the order of their labels.
+ * The successors of all nodes are stored in a single int array, sorted by node number.
+ *
+ * <p>Unlike a {@link Digraph}, a compact graph needs no objects per node or per edge, which
+ * makes it much cheaper to build and traverse for graphs with millions of edges. It only supports
+ * read-only operations, and is typically used as a snapshot of a part of a {@link Digraph}.
+ */
+public final class CompactDigraph<T> {
+
+  private final ImmutableList<T> labels;
+  // The successors of node i are successors[offsets[i]] .. successors[offsets[i + 1] - 1].
+  private final int[] offsets;
+  private final int[] successors;
+
+  private CompactDigraph(ImmutableList<T> labels, int[] offsets, int[] successors) {
+    this.labels = labels;
+    this.offsets = offsets;
+    this.successors = successors;
+  }
+
+  /**
+   * Extracts the subgraph of {@code graph} containing the nodes with the labels in {@code
+   * subset}, preserving the <i>transitive</i> graph relation among those nodes. This yields the
+   * same graph as {@link Digraph#extractSubgraph}, without copying {@code graph}.
+   *
+   * <p>The nodes of the result are numbered in the order given by {@code labelOrder}.
+   *
+   * @return the subgraph, or null if a path between two nodes of the subgraph goes through a cycle
+   *     of nodes outside of it; use {@link Digraph#extractSubgraph} in that case
+   */
+  @Nullable
+  public static <T> CompactDigraph<T> extractSubgraph(Digraph<T> graph, Set<T> subset,
+      final Comparator<T> labelOrder) {
+    List<Node<T>> nodes = new ArrayList<>(subset.size());
+    for (T label : subset) {
+      Node<T> node = graph.getNodeMaybe(label);
+      if (node != null) {
+        nodes.add(node);
+      }
+    }
+    Collections.sort(nodes, new Comparator<Node<T>>() {
+      @Override
+      public int compare(Node<T> o1, Node<T> o2) {
+        return labelOrder.compare(o1.getLabel(), o2.getLabel());
+      }
+    });
+
+    SubgraphBuilder<T> builder = new SubgraphBuilder<>(nodes);
+    int[] offsets = new int[nodes.size() + 1];
+    int[][] adjacency = new int[nodes.size()][];
+    for (int i = 0; i < nodes.size(); i++) {
+      adjacency[i] = builder.getSuccessors(nodes.get(i));
+      if (builder.cyclic) {
+        return null;
+      }
+      offsets[i + 1] = offsets[i] + adjacency[i].length;
+    }
+    int[] successors = new int[offsets[nodes.size()]];
+    for (int i = 0; i < nodes.size(); i++) {
+      System.arraycopy(adjacency[i], 0, successors, offsets[i], adjacency[i].length);
+    }
+
+    ImmutableList.Builder<T> labels = ImmutableList.builder();
+    for (Node<T> node : nodes) {
+      labels.add(node.getLabel());
+    }
+    return new CompactDigraph<>(labels.build(), offsets, successors);
+  }
+
+  /**
+   * Computes the successors of the nodes of a subgraph, looking through the nodes that are not
+   * part of it. The nodes outside of the subgraph are visited without recursion, since paths
+   * through them may be arbitrarily long.
+   */
+  private static class SubgraphBuilder<T> {
+    private static final int[] IN_PROGRESS = new int[0];
+
+    private final Map<Node<T>, Integer> ids = new HashMap<>();
+    // For each visited node outside of the subgraph, the subgraph nodes reachable from it through
+    // nodes outside of the subgraph.
+    private final Map<Node<T>, int[]> reachable = new HashMap<>();
+    private boolean cyclic = false;
+
+    SubgraphBuilder(List<Node<T>> nodes) {
+      for (int i = 0; i < nodes.size(); i++) {
+        ids.put(nodes.get(i), i);
+      }
+    }
+
+    /**
+     * Returns the sorted, distinct numbers of the subgraph nodes that are reachable from the given
+     * node through nodes outside of the subgraph. Sets {@link #cyclic} instead if those paths go
+     * through a cycle.
+     */
+    int[] getSuccessors(Node<T> node) {
+      for (Node<T> succ : node.getSuccessors()) {
+        if (!ids.containsKey(succ) && succ != node) {
+          visit(succ);
+          if (cyclic) {
+            return IN_PROGRESS;
+          }
+        }
+      }
+      return mergeSuccessors(node);
+    }
+
+    /**
+     * Computes the reachable subgraph nodes of the given node outside of the subgraph and of all
+     * nodes outside of the subgraph that it reaches, by a depth-first search that keeps the
+     * current path on a stack.
+     */
+    private void visit(Node<T> start) {
+      if (reachable.containsKey(start)) {
+        return;
+      }
+      Deque<Node<T>> path = new ArrayDeque<>();
+      Deque<Iterator<Node<T>>> pathSuccessors = new ArrayDeque<>();
+      reachable.put(start, IN_PROGRESS);
+      path.push(start);
+      pathSuccessors.push(start.getSuccessors().iterator());
+      while (!path.isEmpty()) {
+        Node<T> node = path.peek();
+        Iterator<Node<T>> successors = pathSuccessors.peek();
+        if (successors.hasNext()) {
+          Node<T> succ = successors.next();
+          if (ids.containsKey(succ) || succ == node) {
+            continue;  // Self-edges of nodes outside the subgraph do not matter.
+          }
+          int[] result = reachable.get(succ);
+          if (result == IN_PROGRESS) {
+            cyclic = true;
+            return;
+          } else if (result == null) {
+            reachable.put(succ, IN_PROGRESS);
+            path.push(succ);
+            pathSuccessors.push(succ.getSuccessors().iterator());
+          }
+        } else {
+          path.pop();
+          pathSuccessors.pop();
+          reachable.put(node, mergeSuccessors(node));
+        }
+      }
+    }
+
+    /**
+     * Returns the sorted, distinct numbers of the successors of the given node in the subgraph,
+     * once {@link #reachable} is known for all of its successors outside of the subgraph.
+     */
+    private int[] mergeSuccessors(Node<T> node) {
+      int[] result = new int[node.numSuccessors()];
+      int size = 0;
+      for (Node<T> succ : node.getSuccessors()) {
+        Integer id = ids.get(succ);
+        if (id == null && succ == node) {
+          continue;
+        }
+        int[] add = id != null ? new int[] {id} : reachable.get(succ);
+        if (size + add.length > result.length) {
+          result = Arrays.copyOf(result, Math.max(2 * result.length, size + add.length));
+        }
+        System.arraycopy(add, 0, result, size, add.length);
+        size += add.length;
+      }
+      Arrays.sort(result, 0, size);
+      int distinct = 0;
+      for (int i = 0; i < size; i++) {
+        if (distinct == 0 || result[distinct - 1] != result[i]) {
+          result[distinct++] = result[i];
+        }
+      }
+      return distinct == result.length ? result : Arrays.copyOf(result, distinct);
+    }
+  }
+
+  public int getNodeCount() {
+    return labels.size();
+  }
+
+  public int getEdgeCount() {
+    return successors.length;
+  }
+
+  /**
+   * Returns the label of the node with the given number.
+   */
+  public T getLabel(int node) {
+    return labels.get(node);
+  }
+
+  /**
+   * Returns the labels of the nodes in a topological order: the reverse post-order of a
+   * depth-first search that visits the nodes, and the successors of each node, in the order of
+   * their numbers. This is the order returned by {@link Digraph#getTopologicalOrder(Comparator)}
+   * for the same graph and label order.
+   */
+  public List<T> getTopologicalOrder() {
+    List<T> order = new ArrayList<>(labels.size());
+    for (int node : getPostorder()) {
+      order.add(labels.get(node));
+    }
+    Collections.reverse(order);
+    return order;
+  }
+
+  /**
+   * Returns the numbers of the nodes in the post-order of a depth-first search that visits the
+   * nodes, and the successors of each node, in increasing order.
+   */
+  private int[] getPostorder() {
+    int nodeCount = labels.size();
+    int[] postorder = new int[nodeCount];
+    int visitedCount = 0;
+    BitSet marked = new BitSet(nodeCount);
+    // The nodes on the current path, and for each of them, the next successor to visit.
+    int[] stack = new int[nodeCount];
+    int[] nextEdge = new int[nodeCount];
+    for (int root = 0; root < nodeCount; root++) {
+      if (marked.get(root)) {
+        continue;
+      }
+      marked.set(root);
+      int depth = 0;
+      stack[0] = root;
+      nextEdge[0] = offsets[root];
+      while (depth >= 0) {
+        int node = stack[depth];
+        if (nextEdge[depth] < offsets[node + 1]) {
+          int succ = successors[nextEdge[depth]++];
+          if (!marked.get(succ)) {
+            marked.set(succ);
+            depth++;
+            stack[depth] = succ;
+            nextEdge[depth] = offsets[succ];
+          }
+        } else {
+          postorder[visitedCount++] = node;
+          depth--;
+        }
+      }
+    }
+    return postorder;
+  }
+}
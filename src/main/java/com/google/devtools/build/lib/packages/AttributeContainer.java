@@ -13,6 +13,9 @@
 // limitations under the License.
 package com.google.devtools.build.lib.packages;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.devtools.build.lib.events.Location;
 
 import java.util.BitSet;
@@ -32,6 +35,13 @@ import java.util.BitSet;
  */
 public class AttributeContainer {
 
+  /**
+   * Canonical instances of list-valued attributes. Many rules have identical lists of labels or
+   * strings in the same attribute, e.g. {@code visibility}, {@code deps} or {@code copts}, and
+   * sharing them keeps large packages a lot smaller.
+   */
+  private static final Interner<ImmutableList<?>> LIST_INTERNER = Interners.newWeakInterner();
+
   private final RuleClass ruleClass;
 
   // Attribute values, keyed by attribute index:
@@ -95,16 +105,29 @@ public class AttributeContainer {
 
   void setAttributeValue(Attribute attribute, Object value, boolean explicit) {
     Integer index = ruleClass.getAttributeIndex(attribute.getName());
-    attributeValues[index] = value;
+    attributeValues[index] = canonicalize(value);
     attributeValueExplicitlySpecified.set(index, explicit);
   }
 
   void setAttributeValueByName(String attrName, Object value) {
     Integer index = ruleClass.getAttributeIndex(attrName);
-    attributeValues[index] = value;
+    attributeValues[index] = canonicalize(value);
     attributeValueExplicitlySpecified.set(index);
   }
 
+  /**
+   * Returns the canonical instance of an immutable list value, so that equal lists are shared
+   * between rules. Other values are returned unchanged: mutable lists such as {@link GlobList}s
+   * cannot be shared, and default values are already shared through their {@link Attribute}.
+   */
+  private static Object canonicalize(Object value) {
+    if (value instanceof ImmutableList<?>) {
+      ImmutableList<?> list = (ImmutableList<?>) value;
+      return list.isEmpty() ? ImmutableList.of() : LIST_INTERNER.intern(list);
+    }
+    return value;
+  }
+
   void setAttributeLocation(int attrIndex, Location location) {
     attributeLocations[attrIndex] = location;
   }
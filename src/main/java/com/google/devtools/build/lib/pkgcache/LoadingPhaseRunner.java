@@ -92,6 +92,13 @@ public class LoadingPhaseRunner {
         help = "Number of parallel threads to use for the loading phase.")
     public int loadingPhaseThreads;
 
+    @Option(name = "experimental_interleave_loading_and_analysis",
+        defaultValue = "false",
+        category = "undocumented",
+        help = "If true, the loading phase only loads the packages of the requested targets, and "
+            + "the packages in their transitive closure are loaded on demand during analysis.")
+    public boolean interleaveLoadingAndAnalysis;
+
     @Option(name = "build_tests_only",
         defaultValue = "false",
         category = "what",
@@ -397,6 +404,7 @@ public class LoadingPhaseRunner {
     // Load the transitive closure of all targets.
     LoadingResult result = doLoadingPhase(eventHandler, eventBus, targets.getTargets(),
         testsToRun, labelsToLoadUnconditionally, keepGoing, options.loadingPhaseThreads,
+        options.interleaveLoadingAndAnalysis,
         targets.hasError());
 
     if (callback != null) {
@@ -417,11 +425,13 @@ public class LoadingPhaseRunner {
    *                                    configuration)
    * @param keepGoing if true, don't throw ViewCreationFailedException if some
    *                  targets could not be loaded, just skip thm.
+   * @param interleaveLoadingAndAnalysis if true, the transitive closure is not visited; the
+   *                                     analysis phase loads the packages it needs on demand
    */
   private LoadingResult doLoadingPhase(EventHandler eventHandler, EventBus eventBus,
       ImmutableSet<Target> targetsToLoad, Collection<Target> testsToRun,
       ListMultimap<String, Label> labelsToLoadUnconditionally, boolean keepGoing,
-      int loadingPhaseThreads, boolean hasError)
+      int loadingPhaseThreads, boolean interleaveLoadingAndAnalysis, boolean hasError)
           throws InterruptedException, LoadingFailedException {
     eventHandler.handle(Event.progress("Loading..."));
     Stopwatch timer = Stopwatch.createStarted();
@@ -436,8 +446,13 @@ public class LoadingPhaseRunner {
     // configuration process is intolerant of missing packages/targets. Before
     // calling getConfiguredTarget(), clients must ensure that all necessary
     // packages/targets have been visited since the last sync/clear.
-    boolean loadingSuccessful = pkgLoader.sync(eventHandler, targetsToLoad, labelsToLoad,
-          keepGoing, loadingPhaseThreads, Integer.MAX_VALUE);
+    //
+    // When loading and analysis are interleaved, the Skyframe analysis loads the packages of the
+    // dependencies itself and reports missing packages and targets as analysis errors, so only
+    // the packages of the requested targets, which target parsing already loaded, are needed.
+    boolean loadingSuccessful = interleaveLoadingAndAnalysis
+        || pkgLoader.sync(eventHandler, targetsToLoad, labelsToLoad, keepGoing,
+            loadingPhaseThreads, Integer.MAX_VALUE);
 
     ImmutableSet<Target> targetsToAnalyze;
     if (loadingSuccessful) {
@@ -480,10 +495,20 @@ public class LoadingPhaseRunner {
     }
 
     // Perform some operations on the set of packages containing the collected targets.
-    ImmutableMap<PackageIdentifier, Path> packageRoots = collectPackageRoots(
-        pkgLoader.getErrorFreeVisitedPackages());
-
-    Set<PackageIdentifier> visitedPackageNames = pkgLoader.getVisitedPackageNames();
+    ImmutableMap<PackageIdentifier, Path> packageRoots;
+    Set<PackageIdentifier> visitedPackageNames;
+    if (interleaveLoadingAndAnalysis) {
+      // The roots of the packages loaded during analysis are only known after the analysis.
+      Set<Package> packages = new HashSet<>();
+      for (Target target : targetsToAnalyze) {
+        packages.add(target.getPackage());
+      }
+      packageRoots = collectPackageRoots(packages);
+      visitedPackageNames = packageRoots.keySet();
+    } else {
+      packageRoots = collectPackageRoots(pkgLoader.getErrorFreeVisitedPackages());
+      visitedPackageNames = pkgLoader.getVisitedPackageNames();
+    }
 
     // Clear some targets from the cache to free memory.
     packageManager.partiallyClear();
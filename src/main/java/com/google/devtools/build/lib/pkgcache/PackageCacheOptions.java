@@ -112,6 +112,25 @@ public class PackageCacheOptions extends OptionsBase {
           + "problem.")
   public List<String> deletedPackages;
 
+  @Option(name = "experimental_recursive_package_excludes",
+          defaultValue = "",
+          category = "package loading",
+          converter = CommaSeparatedPackageNameListConverter.class,
+          help = "A comma-separated list of workspace-relative directories in which recursive "
+          + "target patterns such as 'foo/...' do not look for packages. Use this option for "
+          + "large directory trees that contain no BUILD files, e.g. checked-in data or "
+          + "third-party sources, to speed up the expansion of '//...'. Packages in these "
+          + "directories can still be named explicitly.")
+  public List<String> recursivePackageExcludes;
+
+  @Option(name = "experimental_serialized_package_cache",
+          defaultValue = "false",
+          category = "package loading",
+          help = "If enabled, loaded packages are stored in the output base, so that a new server "
+          + "can reuse them instead of evaluating their BUILD files again. Packages that load "
+          + "Skylark extensions or subinclude files are not cached.")
+  public boolean serializedPackageCache;
+
   @Option(name = "default_visibility",
       defaultValue = "private",
       category = "undocumented",
@@ -13,6 +13,8 @@
 // limitations under the License.
 package com.google.devtools.build.lib.pkgcache;
 
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.packages.PackageIdentifier;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.RootedPath;
 
@@ -27,4 +29,12 @@ public interface RecursivePackageProvider extends PackageProvider {
    * @param directory a {@link RootedPath} specifying the directory to search
    */
   Iterable<PathFragment> getPackagesUnderDirectory(RootedPath directory);
+
+  /**
+   * Announces that the given packages are about to be requested with {@link #getPackage}, so that
+   * implementations can load them in parallel rather than one by one. Errors are only reported by
+   * the later calls to {@link #getPackage}.
+   */
+  void prefetchPackages(EventHandler eventHandler, Iterable<PackageIdentifier> packageNames)
+      throws InterruptedException;
 }
@@ -29,10 +29,12 @@ import com.google.devtools.build.lib.pkgcache.PackageProvider;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.engine.TargetNumbering;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.BinaryPredicate;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
@@ -62,6 +64,7 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
 
   private final Set<Setting> settings;
   private final List<QueryFunction> extraFunctions;
+  private final TargetNumbering<T> targetNumbering = new TargetNumbering<>();
 
   protected AbstractBlazeQueryEnvironment(boolean keepGoing,
       boolean strictScope,
@@ -118,8 +121,7 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
         labelFilter, eventHandler, settings, functions)
         : new SkyQueryEnvironment(
             keepGoing, strictScope, loadingPhaseThreads, labelFilter, eventHandler, settings,
-            functions, targetPatternEvaluator.getOffset(), graphFactory, universeScope,
-            packagePath);
+            functions, targetPatternEvaluator.getOffset(), graphFactory, universeScope);
   }
 
   /**
@@ -132,6 +134,44 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
    *   effect
    */
   public QueryEvalResult<T> evaluateQuery(QueryExpression expr) throws QueryException {
+    preloadTargetPatterns(expr);
+
+    Set<T> resultNodes;
+    try {
+      resultNodes = expr.eval(this);
+    } catch (QueryException e) {
+      throw new QueryException(e, expr);
+    }
+
+    checkForErrors(expr);
+    return new QueryEvalResult<>(!eventHandler.hasErrors(), resultNodes);
+  }
+
+  /**
+   * Evaluate the specified query expression in this environment, passing the resulting targets to
+   * the callback as soon as they are computed. Unlike {@link #evaluateQuery(QueryExpression)},
+   * this does not need to keep the complete result in memory, but the order of the results is
+   * unspecified.
+   *
+   * @return whether the evaluation was free of errors; this can only be false if
+   *   {@code --keep_going} was in effect
+   * @throws QueryException if the evaluation failed and {@code --nokeep_going} was in
+   *   effect
+   */
+  public boolean evaluateQuery(QueryExpression expr, Callback<T> callback) throws QueryException {
+    preloadTargetPatterns(expr);
+
+    try {
+      expr.eval(this, callback);
+    } catch (QueryException e) {
+      throw new QueryException(e, expr);
+    }
+
+    checkForErrors(expr);
+    return !eventHandler.hasErrors();
+  }
+
+  private void preloadTargetPatterns(QueryExpression expr) throws QueryException {
     resolvedTargetPatterns.clear();
 
     // In the --nokeep_going case, errors are reported in the order in which the patterns are
@@ -144,14 +184,9 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
       // Unfortunately, by evaluating the patterns in parallel, we lose some location information.
       throw new QueryException(expr, e.getMessage());
     }
+  }
 
-    Set<T> resultNodes;
-    try {
-      resultNodes = expr.eval(this);
-    } catch (QueryException e) {
-      throw new QueryException(e, expr);
-    }
-
+  private void checkForErrors(QueryExpression expr) throws QueryException {
     if (eventHandler.hasErrors()) {
       if (!keepGoing) {
         // This case represents loading-phase errors reported during evaluation
@@ -163,8 +198,6 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
             + "Results may be inaccurate"));
       }
     }
-
-    return new QueryEvalResult<>(!eventHandler.hasErrors(), resultNodes);
   }
 
   public QueryEvalResult<T> evaluateQuery(String query) throws QueryException {
@@ -235,4 +268,9 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
     builder.addAll(extraFunctions);
     return builder.build();
   }
+
+  @Override
+  public TargetNumbering<T> getTargetNumbering() {
+    return targetNumbering;
+  }
 }
@@ -0,0 +1,98 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * An in-memory cache of the results of recently evaluated queries, so that a server that is asked
+ * the same query again (e.g. by an IDE) does not have to evaluate it again.
+ *
+ * <p>A result is only valid as long as the packages it was computed from are unchanged. Callers
+ * pass a version that changes whenever they may have changed; all results are dropped when it
+ * does. Results are held by soft references, since they may retain a large part of the loaded
+ * dependency graph.
+ */
+@ThreadSafe
+public final class QueryResultCache {
+
+  private static final int MAX_ENTRIES = 16;
+
+  private long version = -1;
+  private final Map<String, SoftReference<QueryEvalResult<Target>>> results =
+      new LinkedHashMap<String, SoftReference<QueryEvalResult<Target>>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<String, SoftReference<QueryEvalResult<Target>>> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * Returns the result stored for the given key at the given version, or null if there is none.
+   *
+   * @param key identifies the query and everything its result depends on apart from the
+   *     packages, such as the working directory and the query options
+   */
+  @Nullable
+  public synchronized QueryEvalResult<Target> get(long version, String key) {
+    QueryEvalResult<Target> result = null;
+    if (version == this.version) {
+      SoftReference<QueryEvalResult<Target>> ref = results.get(key);
+      result = ref != null ? ref.get() : null;
+    }
+    if (result != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return result;
+  }
+
+  /**
+   * Stores the result of a query evaluated at the given version. Only complete results should be
+   * stored, since errors are not replayed to the callers of {@link #get}.
+   */
+  public synchronized void put(long version, String key, QueryEvalResult<Target> result) {
+    if (version != this.version) {
+      results.clear();
+      this.version = version;
+    }
+    results.put(key, new SoftReference<>(result));
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "QueryResultCache(" + results.size() + " entries, " + hits + " hits, " + misses
+        + " misses)";
+  }
+}
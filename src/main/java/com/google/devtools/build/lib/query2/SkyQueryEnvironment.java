@@ -16,12 +16,12 @@ package com.google.devtools.build.lib.query2;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.devtools.build.lib.cmdline.ResolvedTargets;
 import com.google.devtools.build.lib.cmdline.TargetParsingException;
-import com.google.devtools.build.lib.cmdline.TargetPattern;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.graph.Digraph;
@@ -29,14 +29,12 @@ import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
-import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
-import com.google.devtools.build.lib.skyframe.GraphBackedRecursivePackageProvider;
 import com.google.devtools.build.lib.skyframe.PackageValue;
-import com.google.devtools.build.lib.skyframe.RecursivePackageProviderBackedTargetPatternResolver;
 import com.google.devtools.build.lib.skyframe.SkyFunctions;
 import com.google.devtools.build.lib.skyframe.TargetPatternValue;
 import com.google.devtools.build.lib.skyframe.TransitiveTargetValue;
@@ -63,18 +61,42 @@ import javax.annotation.Nullable;
 /**
  * {@link AbstractBlazeQueryEnvironment} that introspects the Skyframe graph to find forward and
  * reverse edges. Results obtained by calling {@link #evaluateQuery} are not guaranteed to be in
- * any particular order. As well, this class eagerly loads the full transitive closure of targets,
- * even if the full closure isn't needed.
+ * any particular order.
+ *
+ * <p>The graph is loaded on demand: target patterns are evaluated when the query refers to them,
+ * and the transitive closure of a set of targets only when an operator that follows dependency
+ * edges, like deps() or rdeps(), needs it. Reverse edges are therefore only complete within the
+ * transitive closure of the targets passed to {@link #buildTransitiveClosure}, which is what
+ * the query functions rely on.
+ *
+ * <p>The query is restricted to the transitive closure of the universe scope. The universe is
+ * loaded lazily as well: its target patterns are evaluated the first time a target has to be
+ * checked against it, dependencies of targets in the universe are added to it as the query follows
+ * them, and the full transitive closure is only loaded for a target that is neither.
  */
 public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   private WalkableGraph graph;
+  /** All keys evaluated for the current query. */
+  private Set<SkyKey> evaluatedKeys;
+  /**
+   * The labels that each rule visited so far may depend on. Computing them requires a walk over
+   * all attributes of the rule, which would otherwise be repeated for every edge to or from it.
+   */
+  private final Map<Rule, Set<Label>> allowedDepsCache = new HashMap<>();
+  /**
+   * The labels of the targets known to be in the transitive closure of the universe scope, or null
+   * if the universe scope has not been evaluated yet.
+   */
+  private Set<Label> universeLabels;
+  /** The labels of the targets matched by the universe scope. */
+  private Set<Label> universeRoots;
+  private boolean universeClosureLoaded;
 
   private final BlazeTargetAccessor accessor = new BlazeTargetAccessor(this);
   private final int loadingPhaseThreads;
   private final WalkableGraphFactory graphFactory;
   private final List<String> universeScope;
   private final String parserPrefix;
-  private final PathPackageLocator pkgPath;
 
   public SkyQueryEnvironment(boolean keepGoing, boolean strictScope, int loadingPhaseThreads,
       Predicate<Label> labelFilter,
@@ -82,22 +104,114 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
       Set<Setting> settings,
       Iterable<QueryFunction> extraFunctions, String parserPrefix,
       WalkableGraphFactory graphFactory,
-      List<String> universeScope, PathPackageLocator pkgPath) {
+      List<String> universeScope) {
     super(keepGoing, strictScope, labelFilter,
         eventHandler,
         settings,
         extraFunctions);
     this.loadingPhaseThreads = loadingPhaseThreads;
     this.graphFactory = graphFactory;
-    this.pkgPath = pkgPath;
     this.universeScope = Preconditions.checkNotNull(universeScope);
     this.parserPrefix = parserPrefix;
     Preconditions.checkState(!universeScope.isEmpty(),
         "No queries can be performed with an empty universe");
   }
 
-  private void init() throws InterruptedException {
-    graph = graphFactory.prepareAndGet(universeScope, loadingPhaseThreads, eventHandler);
+  private void init() {
+    graph = null;
+    evaluatedKeys = new LinkedHashSet<>();
+    allowedDepsCache.clear();
+    universeLabels = null;
+    universeRoots = null;
+    universeClosureLoaded = false;
+  }
+
+  /**
+   * Makes sure that the given keys and their transitive dependencies are in the graph. Keys that
+   * are missing are evaluated in parallel, using up to {@code loadingPhaseThreads} threads.
+   */
+  private void ensureEvaluated(Iterable<SkyKey> keys) throws QueryException {
+    List<SkyKey> missingKeys = new ArrayList<>();
+    for (SkyKey key : keys) {
+      if (evaluatedKeys.add(key) && (graph == null || !graph.exists(key))) {
+        missingKeys.add(key);
+      }
+    }
+    if (missingKeys.isEmpty() && graph != null) {
+      return;
+    }
+    try {
+      // The new graph still contains the keys evaluated earlier, so only the missing ones need to
+      // be requested.
+      graph = graphFactory.evaluateAndGet(missingKeys, loadingPhaseThreads, eventHandler);
+    } catch (InterruptedException e) {
+      throw new QueryException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns whether the target with the given label is in the transitive closure of the universe
+   * scope.
+   */
+  private boolean isInUniverse(Label label) throws QueryException {
+    if (universeLabels == null) {
+      evaluateUniverseScope();
+    }
+    if (!universeLabels.contains(label) && !universeClosureLoaded) {
+      loadUniverseClosure();
+    }
+    return universeLabels.contains(label);
+  }
+
+  /**
+   * Evaluates the target patterns of the universe scope. Patterns that fail to evaluate do not
+   * contribute any targets, as when the universe was loaded in keep-going mode.
+   */
+  private void evaluateUniverseScope() throws QueryException {
+    Iterable<SkyKey> universeKeys = TargetPatternValue.keys(universeScope,
+        TargetPatternEvaluator.DEFAULT_FILTERING_POLICY, parserPrefix);
+    ensureEvaluated(universeKeys);
+    universeRoots = new HashSet<>();
+    for (SkyKey universeKey : universeKeys) {
+      TargetPatternValue value = (TargetPatternValue) graph.getValue(universeKey);
+      if (value == null) {
+        continue;
+      }
+      Set<Label> labels = new HashSet<>();
+      for (Target target : value.getTargets().getTargets()) {
+        labels.add(target.getLabel());
+      }
+      if (((TargetPatternValue.TargetPattern) universeKey.argument()).isNegative()) {
+        universeRoots.removeAll(labels);
+      } else {
+        universeRoots.addAll(labels);
+      }
+    }
+    universeLabels = new HashSet<>(universeRoots);
+  }
+
+  /** Loads the transitive closure of the universe scope and adds it to {@link #universeLabels}. */
+  private void loadUniverseClosure() throws QueryException {
+    List<SkyKey> rootKeys = new ArrayList<>(universeRoots.size());
+    for (Label label : universeRoots) {
+      rootKeys.add(TransitiveTargetValue.key(label));
+    }
+    ensureEvaluated(rootKeys);
+    Set<SkyKey> visited = new HashSet<>(rootKeys);
+    Deque<SkyKey> toVisit = new ArrayDeque<>(rootKeys);
+    while (!toVisit.isEmpty()) {
+      SkyKey key = toVisit.removeFirst();
+      universeLabels.add((Label) key.argument());
+      if (!graph.exists(key)) {
+        continue;
+      }
+      for (SkyKey dep : graph.getDirectDeps(key)) {
+        if (dep.functionName() == SkyFunctions.TRANSITIVE_TARGET && visited.add(dep)) {
+          toVisit.addLast(dep);
+        }
+      }
+    }
+    universeClosureLoaded = true;
   }
 
   @Override
@@ -107,14 +221,19 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     // result is set to have an error iff there were errors emitted during the query, so we reset
     // errors here.
     eventHandler.resetErrors();
-    try {
-      init();
-    } catch (InterruptedException e) {
-      throw new QueryException(e.getMessage());
-    }
+    init();
     return super.evaluateQuery(expr);
   }
 
+  @Override
+  public boolean evaluateQuery(QueryExpression expr, Callback<Target> callback)
+      throws QueryException {
+    // See evaluateQuery(QueryExpression) above.
+    eventHandler.resetErrors();
+    init();
+    return super.evaluateQuery(expr, callback);
+  }
+
   private static SkyKey transformToKey(Target value) {
     return TransitiveTargetValue.key(value.getLabel());
   }
@@ -126,7 +245,7 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
       return null;
     }
     try {
-      return getTarget(((Label) key.argument()));
+      return getTargetFromGraph(((Label) key.argument()));
     } catch (QueryException | TargetNotFoundException e) {
       // Any problems with targets were already reported during #buildTransitiveClosure.
       return null;
@@ -134,7 +253,14 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   }
 
   private Collection<Target> getRawFwdDeps(Target target) {
-    return makeTargets(graph.getDirectDeps(transformToKey(target)));
+    Collection<Target> deps = makeTargets(graph.getDirectDeps(transformToKey(target)));
+    if (universeLabels != null) {
+      // The dependencies of a target in the universe are in the universe as well.
+      for (Target dep : deps) {
+        universeLabels.add(dep.getLabel());
+      }
+    }
+    return deps;
   }
 
   private Collection<Target> getRawReverseDeps(Target target) {
@@ -142,17 +268,21 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   }
 
   private Set<Label> getAllowedDeps(Rule rule) {
-    Set<Label> allowedLabels = new HashSet<>(rule.getLabels(dependencyFilter));
-    allowedLabels.addAll(rule.getVisibility().getDependencyLabels());
-    // We should add deps from aspects, otherwise they are going to be filtered out.
-    allowedLabels.addAll(rule.getAspectLabelsSuperset(dependencyFilter));
+    Set<Label> allowedLabels = allowedDepsCache.get(rule);
+    if (allowedLabels == null) {
+      allowedLabels = new HashSet<>(rule.getLabels(dependencyFilter));
+      allowedLabels.addAll(rule.getVisibility().getDependencyLabels());
+      // We should add deps from aspects, otherwise they are going to be filtered out.
+      allowedLabels.addAll(rule.getAspectLabelsSuperset(dependencyFilter));
+      allowedDepsCache.put(rule, allowedLabels);
+    }
     return allowedLabels;
   }
 
   public Collection<Target> getFwdDeps(Target target) {
     Collection<Target> unfilteredDeps = getRawFwdDeps(target);
     if (!(target instanceof Rule)) {
-      return getRawFwdDeps(target);
+      return unfilteredDeps;
     }
     final Set<Label> allowedLabels = getAllowedDeps((Rule) target);
     return Collections2.filter(unfilteredDeps,
@@ -225,7 +355,9 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     Iterator<Target> targetIterator = targets.iterator();
     while (targetIterator.hasNext()) {
       Target target = targetIterator.next();
-      if (!validateScope(target.getLabel(), strictScope)) {
+      // Targets outside of the universe are not part of the graph that is being queried, so
+      // patterns like //... silently skip them.
+      if (!isInUniverse(target.getLabel()) || !validateScope(target.getLabel(), strictScope)) {
         targetIterator.remove();
       }
     }
@@ -283,7 +415,17 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   public Target getTarget(Label label) throws TargetNotFoundException, QueryException {
     // Can't use strictScope here because we are expecting a target back.
     validateScope(label, true);
+    if (!isInUniverse(label)) {
+      throw new QueryException(String.format("target '%s' is not within the universe scope %s",
+          label, universeScope));
+    }
+    return getTargetFromGraph(label);
+  }
+
+  /** Like {@link #getTarget}, but for a label that is known to be in the universe. */
+  private Target getTargetFromGraph(Label label) throws TargetNotFoundException, QueryException {
     SkyKey packageKey = PackageValue.key(label.getPackageIdentifier());
+    ensureEvaluated(ImmutableList.of(packageKey));
     checkExistence(packageKey);
     try {
       PackageValue packageValue =
@@ -302,10 +444,14 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   @Override
   public void buildTransitiveClosure(QueryExpression caller, Set<Target> targets, int maxDepth)
       throws QueryException {
-    // Everything has already been loaded, so here we just check for errors so that we can
-    // pre-emptively throw/report if needed.
+    // The transitive closure of a target is loaded as a whole, so maxDepth does not help here.
+    List<SkyKey> targetKeys = new ArrayList<>(targets.size());
     for (Target target : targets) {
-      SkyKey targetKey = TransitiveTargetValue.key(target.getLabel());
+      targetKeys.add(transformToKey(target));
+    }
+    ensureEvaluated(targetKeys);
+    // Check for errors so that we can pre-emptively throw/report if needed.
+    for (SkyKey targetKey : targetKeys) {
       checkExistence(targetKey);
       Exception exception = graph.getException(targetKey);
       if (exception != null) {
@@ -317,41 +463,22 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   protected Map<String, ResolvedTargets<Target>> preloadOrThrow(QueryExpression caller,
       Collection<String> patterns) throws QueryException, TargetParsingException {
     Map<String, ResolvedTargets<Target>> result = Maps.newHashMapWithExpectedSize(patterns.size());
+    // Evaluate all the patterns at once, so that they are loaded in parallel.
+    ensureEvaluated(TargetPatternValue.keys(patterns,
+        TargetPatternEvaluator.DEFAULT_FILTERING_POLICY, parserPrefix));
     for (String pattern : patterns) {
       SkyKey patternKey = TargetPatternValue.key(pattern,
           TargetPatternEvaluator.DEFAULT_FILTERING_POLICY, parserPrefix);
 
-      TargetPatternValue.TargetPattern targetPattern =
-          ((TargetPatternValue.TargetPattern) patternKey.argument());
-
+      checkExistence(patternKey);
       TargetParsingException targetParsingException = null;
-      if (graph.exists(patternKey)) {
-        // If the graph already contains a value for this target pattern, use it.
-        TargetPatternValue value = (TargetPatternValue) graph.getValue(patternKey);
-        if (value != null) {
-          result.put(pattern, value.getTargets());
-        } else {
-          targetParsingException =
-              (TargetParsingException)
-                  Preconditions.checkNotNull(graph.getException(patternKey), pattern);
-        }
+      TargetPatternValue value = (TargetPatternValue) graph.getValue(patternKey);
+      if (value != null) {
+        result.put(pattern, value.getTargets());
       } else {
-        // If the graph doesn't contain a value for this target pattern, try to directly evaluate
-        // it, by making use of packages already present in the graph.
-        TargetPattern.Parser parser = new TargetPattern.Parser(targetPattern.getOffset());
-        GraphBackedRecursivePackageProvider provider =
-            new GraphBackedRecursivePackageProvider(graph);
-        RecursivePackageProviderBackedTargetPatternResolver resolver =
-            new RecursivePackageProviderBackedTargetPatternResolver(provider, eventHandler,
-                targetPattern.getPolicy(), pkgPath);
-        TargetPattern parsedPattern = parser.parse(targetPattern.getPattern());
-        try {
-          result.put(pattern, parsedPattern.eval(resolver));
-        } catch (TargetParsingException e) {
-          targetParsingException = e;
-        } catch (InterruptedException e) {
-          throw new QueryException(e.getMessage());
-        }
+        targetParsingException =
+            (TargetParsingException)
+                Preconditions.checkNotNull(graph.getException(patternKey), pattern);
       }
 
       if (targetParsingException != null) {
@@ -16,8 +16,9 @@ package com.google.devtools.build.lib.query2.engine;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -47,10 +48,17 @@ class BinaryOperatorExpression extends QueryExpression {
 
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env) throws QueryException {
-    Set<T> lhsValue = new LinkedHashSet<>(operands.get(0).eval(env));
+    List<Set<T>> values = new ArrayList<>(operands.size());
+    int totalSize = 0;
+    for (QueryExpression operand : operands) {
+      Set<T> value = operand.eval(env);
+      values.add(value);
+      totalSize += value.size();
+    }
+    Set<T> lhsValue = TargetBitSet.copyOf(env, values.get(0), totalSize);
 
     for (int i = 1; i < operands.size(); i++) {
-      Set<T> rhsValue = operands.get(i).eval(env);
+      Set<T> rhsValue = values.get(i);
       switch (operator) {
         case INTERSECT:
         case CARET:
@@ -71,6 +79,60 @@ class BinaryOperatorExpression extends QueryExpression {
     return lhsValue;
   }
 
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, final Callback<T> callback)
+      throws QueryException {
+    switch (operator) {
+      case UNION:
+      case PLUS:
+        // Stream the operands one after the other, skipping elements already passed on.
+        final Set<T> seen = new HashSet<>();
+        Callback<T> uniquifier = new Callback<T>() {
+          @Override
+          public void process(Iterable<T> partialResult) throws QueryException {
+            List<T> unseen = new ArrayList<>();
+            for (T element : partialResult) {
+              if (seen.add(element)) {
+                unseen.add(element);
+              }
+            }
+            if (!unseen.isEmpty()) {
+              callback.process(unseen);
+            }
+          }
+        };
+        for (QueryExpression operand : operands) {
+          operand.eval(env, uniquifier);
+        }
+        break;
+      case EXCEPT:
+      case MINUS:
+        // (a - b) - c == a - (b + c), so only the first operand can be streamed.
+        final Set<T> excluded = new HashSet<>();
+        for (int i = 1; i < operands.size(); i++) {
+          excluded.addAll(operands.get(i).eval(env));
+        }
+        operands.get(0).eval(env, new Callback<T>() {
+          @Override
+          public void process(Iterable<T> partialResult) throws QueryException {
+            List<T> remaining = new ArrayList<>();
+            for (T element : partialResult) {
+              if (!excluded.contains(element)) {
+                remaining.add(element);
+              }
+            }
+            if (!remaining.isEmpty()) {
+              callback.process(remaining);
+            }
+          }
+        });
+        break;
+      default:
+        // An intersection is only known once all operands are.
+        super.eval(env, callback);
+    }
+  }
+
   @Override
   public void collectTargetPatterns(Collection<String> literals) {
     for (QueryExpression subExpression : operands) {
@@ -15,8 +15,13 @@
 package com.google.devtools.build.lib.query2.engine;
 
 import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.graph.Digraph;
+import com.google.devtools.build.lib.graph.Node;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 
 /** {@link QueryEvalResult} along with a digraph giving the structure of the results. */
@@ -33,4 +38,21 @@ public class BlazeQueryEvalResult<T> extends QueryEvalResult<T> {
   public Digraph<T> getResultGraph() {
     return graph.extractSubgraph(resultSet);
   }
+
+  /**
+   * Returns the elements of the result in the topological order of {@link #getResultGraph},
+   * as computed by {@link Digraph#getTopologicalOrder(Comparator)}, without building that graph
+   * if possible.
+   */
+  public List<T> getTopologicalOrder(Comparator<T> edgeOrder) {
+    CompactDigraph<T> subgraph = CompactDigraph.extractSubgraph(graph, resultSet, edgeOrder);
+    if (subgraph != null) {
+      return subgraph.getTopologicalOrder();
+    }
+    List<T> order = new ArrayList<>(resultSet.size());
+    for (Node<T> node : getResultGraph().getTopologicalOrder(edgeOrder)) {
+      order.add(node.getLabel());
+    }
+    return order;
+  }
 }
@@ -16,14 +16,17 @@ package com.google.devtools.build.lib.query2.engine;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
-import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.StreamableQueryFunction;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * A "deps" query expression, which computes the dependencies of the argument. An optional
  * integer-literal second argument may be specified; its value bounds the search from the arguments.
@@ -31,7 +34,7 @@ import java.util.Set;
  * <pre>expr ::= DEPS '(' expr ')'</pre>
  * <pre>       | DEPS '(' expr ',' WORD ')'</pre>
  */
-final class DepsFunction implements QueryFunction {
+final class DepsFunction implements StreamableQueryFunction {
   DepsFunction() {
   }
 
@@ -50,21 +53,36 @@ final class DepsFunction implements QueryFunction {
     return ImmutableList.of(ArgumentType.EXPRESSION, ArgumentType.INTEGER);
   }
 
-  /**
-   * Breadth-first search from the arguments.
-   */
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args)
       throws QueryException {
+    Set<T> visited = new LinkedHashSet<>();
+    eval(env, expression, args, visited, null);
+    return visited;
+  }
+
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+      Callback<T> callback) throws QueryException {
+    eval(env, expression, args, new HashSet<T>(), callback);
+  }
+
+  /**
+   * Breadth-first search from the arguments. The nodes of every level are passed to the callback,
+   * if any, as soon as the level is complete.
+   */
+  private static <T> void eval(QueryEnvironment<T> env, QueryExpression expression,
+      List<Argument> args, Set<T> visited, @Nullable Callback<T> callback)
+      throws QueryException {
     Set<T> argumentValue = args.get(0).getExpression().eval(env);
     int depthBound = args.size() > 1 ? args.get(1).getInteger() : Integer.MAX_VALUE;
     env.buildTransitiveClosure(expression, argumentValue, depthBound);
 
-    Set<T> visited = new LinkedHashSet<>();
     Collection<T> current = argumentValue;
 
     // We need to iterate depthBound + 1 times.
     for (int i = 0; i <= depthBound; i++) {
+      List<T> level = new ArrayList<>();
       List<T> next = new ArrayList<>();
       for (T node : current) {
         if (!visited.add(node)) {
@@ -74,15 +92,17 @@ final class DepsFunction implements QueryFunction {
           continue;
         }
 
+        level.add(node);
         next.addAll(env.getFwdDeps(node));
       }
+      if (callback != null && !level.isEmpty()) {
+        callback.process(level);
+      }
       if (next.isEmpty()) {
         // Exit when there are no more nodes to visit.
         break;
       }
       current = next;
     }
-
-    return visited;
   }
 }
@@ -65,6 +65,21 @@ class LetExpression extends QueryExpression {
     }
   }
 
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback) throws QueryException {
+    if (!NAME_PATTERN.matcher(varName).matches()) {
+      throw new QueryException(this, "invalid variable name '" + varName + "' in let expression");
+    }
+    // The value of the variable is needed in full, but the body can be streamed.
+    Set<T> varValue = varExpr.eval(env);
+    Set<T> prevValue = env.setVariable(varName, varValue);
+    try {
+      bodyExpr.eval(env, callback);
+    } finally {
+      env.setVariable(varName, prevValue); // restore
+    }
+  }
+
   @Override
   public void collectTargetPatterns(Collection<String> literals) {
     varExpr.collectTargetPatterns(literals);
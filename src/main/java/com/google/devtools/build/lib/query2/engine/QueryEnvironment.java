@@ -126,6 +126,20 @@ public interface QueryEnvironment<T> {
         throws QueryException;
   }
 
+  /**
+   * A query function that can pass its result to a {@link Callback} in batches, as it is
+   * computed.
+   */
+  public interface StreamableQueryFunction extends QueryFunction {
+    /**
+     * Called when a user-defined function is to be evaluated and its result is consumed by a
+     * callback. The elements passed to the callback must be the same as the ones returned by
+     * {@link #eval(QueryEnvironment, QueryExpression, List)}.
+     */
+    <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+        Callback<T> callback) throws QueryException;
+  }
+
   /**
    * Exception type for the case where a target cannot be found. It's basically a wrapper for
    * whatever exception is internally thrown.
@@ -224,6 +238,12 @@ public interface QueryEnvironment<T> {
    */
   Iterable<QueryFunction> getFunctions();
 
+  /**
+   * Returns the numbering used by the query engine to represent large sets of targets as bitsets.
+   * Implementations should create a single instance and return that for all calls.
+   */
+  TargetNumbering<T> getTargetNumbering();
+
   /**
    * Settings for the query engine. See {@link QueryEnvironment#isSettingEnabled}.
    */
@@ -69,6 +69,19 @@ public abstract class QueryExpression {
    */
   public abstract <T> Set<T> eval(QueryEnvironment<T> env) throws QueryException;
 
+  /**
+   * Evaluates this query in the specified environment, and passes the resulting set of target
+   * nodes to the callback, possibly in several batches. Expressions that can compute their result
+   * incrementally override this method, so that the first results can be output before the
+   * evaluation finishes; the default implementation passes the complete result of
+   * {@link #eval(QueryEnvironment)} as a single batch.
+   *
+   * <p>Errors are reported as in {@link #eval(QueryEnvironment)}.
+   */
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback) throws QueryException {
+    callback.process(eval(env));
+  }
+
   /**
    * Collects all target patterns that are referenced anywhere within this query expression and adds
    * them to the given collection, which must be mutable.
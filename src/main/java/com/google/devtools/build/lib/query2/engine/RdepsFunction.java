@@ -16,14 +16,17 @@ package com.google.devtools.build.lib.query2.engine;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
-import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.StreamableQueryFunction;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * An "rdeps" query expression, which computes the reverse dependencies of the argument within the
  * transitive closure of the universe. An optional integer-literal third argument may be
@@ -32,7 +35,7 @@ import java.util.Set;
  * <pre>expr ::= RDEPS '(' expr ',' expr ')'</pre>
  * <pre>       | RDEPS '(' expr ',' expr ',' WORD ')'</pre>
  */
-final class RdepsFunction implements QueryFunction {
+final class RdepsFunction implements StreamableQueryFunction {
   RdepsFunction() {
   }
 
@@ -52,12 +55,27 @@ final class RdepsFunction implements QueryFunction {
         ArgumentType.EXPRESSION, ArgumentType.EXPRESSION, ArgumentType.INTEGER);
   }
 
+  @Override
+  public <T> Set<T> eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args)
+      throws QueryException {
+    Set<T> visited = new LinkedHashSet<>();
+    eval(env, expression, args, visited, null);
+    return visited;
+  }
+
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+      Callback<T> callback) throws QueryException {
+    eval(env, expression, args, new HashSet<T>(), callback);
+  }
+
   /**
    * Compute the transitive closure of the universe, then breadth-first search from the argument
-   * towards the universe while staying within the transitive closure.
+   * towards the universe while staying within the transitive closure. The nodes of every level
+   * are passed to the callback, if any, as soon as the level is complete.
    */
-  @Override
-  public <T> Set<T> eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args)
+  private static <T> void eval(QueryEnvironment<T> env, QueryExpression expression,
+      List<Argument> args, Set<T> visited, @Nullable Callback<T> callback)
       throws QueryException {
     Set<T> universeValue = args.get(0).getExpression().eval(env);
     Set<T> argumentValue = args.get(1).getExpression().eval(env);
@@ -65,12 +83,12 @@ final class RdepsFunction implements QueryFunction {
 
     env.buildTransitiveClosure(expression, universeValue, Integer.MAX_VALUE);
 
-    Set<T> visited = new LinkedHashSet<>();
     Set<T> reachableFromUniverse = env.getTransitiveClosure(universeValue);
     Collection<T> current = argumentValue;
 
     // We need to iterate depthBound + 1 times.
     for (int i = 0; i <= depthBound; i++) {
+      List<T> level = new ArrayList<>();
       List<T> next = new ArrayList<>();
       for (T node : current) {
         if (!reachableFromUniverse.contains(node)) {
@@ -85,15 +103,17 @@ final class RdepsFunction implements QueryFunction {
           continue;
         }
 
+        level.add(node);
         next.addAll(env.getReverseDeps(node));
       }
+      if (callback != null && !level.isEmpty()) {
+        callback.process(level);
+      }
       if (next.isEmpty()) {
         // Exit when there are no more nodes to visit.
         break;
       }
       current = next;
     }
-
-    return visited;
   }
 }
@@ -13,48 +13,158 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.engine;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
-import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.StreamableQueryFunction;
 
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
  * An abstract class that provides generic regex filter expression. Actual
  * expression are implemented by the subclasses.
  */
-abstract class RegexFilterExpression implements QueryFunction {
+abstract class RegexFilterExpression implements StreamableQueryFunction {
+
+  /**
+   * The number of targets that are matched by one task. Inputs that are not larger than that are
+   * matched on the calling thread.
+   */
+  private static final int TARGETS_PER_TASK = 4096;
+
+  private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+      NUM_THREADS, NUM_THREADS, 3L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactoryBuilder().setNameFormat("Query filter %d").setDaemon(true).build());
+
+  static {
+    // Do not consume threads when not in use.
+    threadPool.allowCoreThreadTimeOut(true);
+  }
+
   protected RegexFilterExpression() {
   }
 
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args)
       throws QueryException {
-    Pattern compiledPattern;
+    Pattern compiledPattern = compilePattern(expression, args);
+    QueryExpression argument = args.get(args.size() - 1).getExpression();
+
+    return new LinkedHashSet<>(filter(env, args, compiledPattern, argument.eval(env)));
+  }
+
+  @Override
+  public <T> void eval(final QueryEnvironment<T> env, QueryExpression expression,
+      final List<Argument> args, final Callback<T> callback) throws QueryException {
+    final Pattern compiledPattern = compilePattern(expression, args);
+    QueryExpression argument = args.get(args.size() - 1).getExpression();
+
+    argument.eval(env, new Callback<T>() {
+      @Override
+      public void process(Iterable<T> partialResult) throws QueryException {
+        List<T> result = filter(env, args, compiledPattern, partialResult);
+        if (!result.isEmpty()) {
+          callback.process(result);
+        }
+      }
+    });
+  }
+
+  private Pattern compilePattern(QueryExpression expression, List<Argument> args)
+      throws QueryException {
     try {
-      compiledPattern = Pattern.compile(getPattern(args));
+      return Pattern.compile(getPattern(args));
     } catch (IllegalArgumentException e) {
       throw new QueryException(expression, "illegal pattern regexp in '" + this + "': "
                                + e.getMessage());
     }
+  }
 
-    QueryExpression argument = args.get(args.size() - 1).getExpression();
-
-    Set<T> result = new LinkedHashSet<>();
-    for (T target : argument.eval(env)) {
-      for (String str : getFilterStrings(env, args, target)) {
-        if ((str != null) && compiledPattern.matcher(str).find()) {
-          result.add(target);
-          break;
+  /**
+   * Returns the targets that match the pattern, in their original order. Large inputs are split
+   * into chunks that are matched in parallel: matching only reads the targets, so it is safe to
+   * do concurrently, and for attr() it can be expensive.
+   */
+  private <T> List<T> filter(final QueryEnvironment<T> env, final List<Argument> args,
+      final Pattern compiledPattern, Iterable<T> targets) throws QueryException {
+    final List<T> targetList = targets instanceof List
+        ? (List<T>) targets
+        : Lists.newArrayList(targets);
+    // Every chunk writes its own range of this array.
+    final boolean[] matching = new boolean[targetList.size()];
+    if (targetList.size() <= TARGETS_PER_TASK) {
+      matchRange(env, args, compiledPattern, targetList, 0, targetList.size(), matching);
+    } else {
+      List<Future<?>> chunks = new ArrayList<>();
+      for (int start = 0; start < targetList.size(); start += TARGETS_PER_TASK) {
+        final int chunkStart = start;
+        final int chunkEnd = Math.min(start + TARGETS_PER_TASK, targetList.size());
+        chunks.add(threadPool.submit(new Runnable() {
+          @Override
+          public void run() {
+            matchRange(env, args, compiledPattern, targetList, chunkStart, chunkEnd, matching);
+          }
+        }));
+      }
+      try {
+        for (Future<?> chunk : chunks) {
+          chunk.get();
         }
+      } catch (InterruptedException e) {
+        cancelAll(chunks);
+        throw new QueryException("interrupted");
+      } catch (ExecutionException e) {
+        // The result is incomplete anyway, so do not let the other chunks keep the threads busy.
+        cancelAll(chunks);
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+
+    List<T> result = new ArrayList<>();
+    for (int i = 0; i < matching.length; i++) {
+      if (matching[i]) {
+        result.add(targetList.get(i));
       }
     }
     return result;
   }
 
+  private static void cancelAll(List<Future<?>> chunks) {
+    for (Future<?> chunk : chunks) {
+      chunk.cancel(true);
+    }
+  }
+
+  private <T> void matchRange(QueryEnvironment<T> env, List<Argument> args,
+      Pattern compiledPattern, List<T> targets, int start, int end, boolean[] matching) {
+    for (int i = start; i < end; i++) {
+      matching[i] = matches(env, args, compiledPattern, targets.get(i));
+    }
+  }
+
+  private <T> boolean matches(QueryEnvironment<T> env, List<Argument> args,
+      Pattern compiledPattern, T target) {
+    for (String str : getFilterStrings(env, args, target)) {
+      if ((str != null) && compiledPattern.matcher(str).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Returns string for the given target that must be matched against pattern.
    * May return null, in which case matching is guaranteed to fail.
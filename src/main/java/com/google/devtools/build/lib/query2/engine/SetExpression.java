@@ -15,8 +15,8 @@ package com.google.devtools.build.lib.query2.engine;
 
 import com.google.common.base.Joiner;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -49,9 +49,16 @@ class SetExpression extends QueryExpression {
 
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env) throws QueryException {
-    Set<T> result = new LinkedHashSet<>();
+    List<Set<T>> values = new ArrayList<>(words.size());
+    int totalSize = 0;
     for (TargetLiteral expr : words) {
-      result.addAll(expr.eval(env));
+      Set<T> value = expr.eval(env);
+      values.add(value);
+      totalSize += value.size();
+    }
+    Set<T> result = TargetBitSet.newSet(env, totalSize);
+    for (Set<T> value : values) {
+      result.addAll(value);
     }
     return result;
   }
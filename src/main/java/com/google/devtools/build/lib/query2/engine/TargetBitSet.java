@@ -0,0 +1,205 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A set of targets represented as a bitset over a {@link TargetNumbering}. Iteration is in the
+ * order in which the targets were numbered.
+ *
+ * <p>Unions, intersections and differences with another bitset over the same numbering are
+ * computed with bit operations, without looking up or allocating anything per element. This
+ * makes the bitset much cheaper than a hash set for the large sets that typically flow through
+ * set operations, but since its size is proportional to the number of all numbered targets, a
+ * hash set is still preferable for small sets; see {@link #newSet}.
+ */
+final class TargetBitSet<T> extends AbstractSet<T> {
+
+  /**
+   * The number of elements from which set operations use bitsets.
+   */
+  static final int MIN_BITSET_SIZE = 1024;
+
+  private final TargetNumbering<T> numbering;
+  private final BitSet bits;
+  private int size;
+
+  TargetBitSet(TargetNumbering<T> numbering) {
+    this(numbering, new BitSet(numbering.size()), 0);
+  }
+
+  private TargetBitSet(TargetNumbering<T> numbering, BitSet bits, int size) {
+    this.numbering = numbering;
+    this.bits = bits;
+    this.size = size;
+  }
+
+  /**
+   * Returns a new, modifiable set for combining sets of about the given total size: a bitset over
+   * the numbering of the environment for large sets, a hash set otherwise.
+   */
+  static <T> Set<T> newSet(QueryEnvironment<T> env, int expectedSize) {
+    return expectedSize < MIN_BITSET_SIZE
+        ? new LinkedHashSet<T>()
+        : new TargetBitSet<>(env.getTargetNumbering());
+  }
+
+  /**
+   * Returns a new, modifiable set containing the given elements, as returned by
+   * {@link #newSet}.
+   */
+  static <T> Set<T> copyOf(QueryEnvironment<T> env, Collection<T> elements, int expectedSize) {
+    if (elements instanceof TargetBitSet
+        && ((TargetBitSet<T>) elements).numbering == env.getTargetNumbering()) {
+      TargetBitSet<T> other = (TargetBitSet<T>) elements;
+      return new TargetBitSet<>(other.numbering, (BitSet) other.bits.clone(), other.size);
+    }
+    Set<T> result = newSet(env, expectedSize);
+    result.addAll(elements);
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    int id = numbering.getId(o);
+    return id >= 0 && bits.get(id);
+  }
+
+  @Override
+  public boolean add(T target) {
+    int id = numbering.getOrAssignId(target);
+    if (bits.get(id)) {
+      return false;
+    }
+    bits.set(id);
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    int id = numbering.getId(o);
+    if (id < 0 || !bits.get(id)) {
+      return false;
+    }
+    bits.clear(id);
+    size--;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    bits.clear();
+    size = 0;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends T> c) {
+    BitSet other = getBits(c);
+    if (other == null) {
+      return super.addAll(c);
+    }
+    bits.or(other);
+    return updateSize();
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    BitSet other = getBits(c);
+    if (other == null) {
+      return super.retainAll(c);
+    }
+    bits.and(other);
+    return updateSize();
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    BitSet other = getBits(c);
+    if (other == null) {
+      // Unlike AbstractSet.removeAll, never calls contains() on c, which may be a list.
+      boolean changed = false;
+      for (Object o : c) {
+        changed |= remove(o);
+      }
+      return changed;
+    }
+    bits.andNot(other);
+    return updateSize();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int next = bits.nextSetBit(0);
+      private int last = -1;
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public T next() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        last = next;
+        next = bits.nextSetBit(next + 1);
+        return numbering.get(last);
+      }
+
+      @Override
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        bits.clear(last);
+        size--;
+        last = -1;
+      }
+    };
+  }
+
+  /**
+   * Returns the bits of the given collection if it is a bitset over the same numbering.
+   */
+  private BitSet getBits(Collection<?> c) {
+    return c instanceof TargetBitSet && ((TargetBitSet<?>) c).numbering == numbering
+        ? ((TargetBitSet<?>) c).bits
+        : null;
+  }
+
+  /**
+   * Recomputes the size after a bit operation, and returns whether it changed. A bit operation
+   * changes the size if it changes the set at all, since it either only adds or only removes.
+   */
+  private boolean updateSize() {
+    int oldSize = size;
+    size = bits.cardinality();
+    return size != oldSize;
+  }
+}
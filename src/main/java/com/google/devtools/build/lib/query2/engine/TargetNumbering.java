@@ -0,0 +1,67 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dense numbering of the targets seen during the evaluation of queries: each target is assigned
+ * the next free number when it is first put into a {@link TargetBitSet}. Bitsets of targets
+ * numbered by the same instance can be combined with bit operations.
+ *
+ * <p>Instances are not thread-safe.
+ */
+public final class TargetNumbering<T> {
+
+  private final Map<T, Integer> ids = new HashMap<>();
+  private final List<T> targets = new ArrayList<>();
+
+  /**
+   * Returns the number of the given target, assigning it a new one if necessary.
+   */
+  int getOrAssignId(T target) {
+    Integer id = ids.get(target);
+    if (id == null) {
+      id = targets.size();
+      ids.put(target, id);
+      targets.add(target);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the number of the given object, or -1 if it has none.
+   */
+  int getId(Object target) {
+    Integer id = ids.get(target);
+    return id != null ? id : -1;
+  }
+
+  /**
+   * Returns the target with the given number.
+   */
+  T get(int id) {
+    return targets.get(id);
+  }
+
+  /**
+   * Returns the number of targets numbered so far.
+   */
+  public int size() {
+    return targets.size();
+  }
+}
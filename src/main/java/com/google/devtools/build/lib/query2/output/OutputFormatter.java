@@ -25,6 +25,9 @@ import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.PackageSerializer;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.BlazeQueryEvalResult;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.syntax.EvalUtils;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.BinaryPredicate;
@@ -102,7 +105,8 @@ public abstract class OutputFormatter implements Serializable {
         new LocationOutputFormatter(),
         new GraphOutputFormatter(),
         new XmlOutputFormatter(),
-        new ProtoOutputFormatter());
+        new ProtoOutputFormatter(),
+        new StreamedProtoOutputFormatter());
   }
 
   public static String formatterNames(Iterable<OutputFormatter> formatters) {
@@ -147,6 +151,17 @@ public abstract class OutputFormatter implements Serializable {
   public abstract void output(QueryOptions options, Digraph<Target> result, PrintStream out)
       throws IOException;
 
+  /**
+   * Format the result of a query in dependency order, and print it to "out". By default, this
+   * calls {@link #output} with the subgraph of the query environment's graph that contains the
+   * result. Formatters that only need the targets in topological order override it, because
+   * building that subgraph is expensive for large results.
+   */
+  public void outputOrdered(QueryOptions options, BlazeQueryEvalResult<Target> result,
+      PrintStream out) throws IOException {
+    output(options, result.getResultGraph(), out);
+  }
+
   /**
    * Unordered output formatter (wrt. dependency ordering).
    *
@@ -161,6 +176,56 @@ public abstract class OutputFormatter implements Serializable {
         throws IOException;
   }
 
+  /**
+   * Unordered output formatter that can print the query results while they are being computed.
+   *
+   * <p>Using a streamed formatter, the first results are printed long before the evaluation of a
+   * large query finishes, and the complete result never has to be kept in memory.
+   */
+  public interface StreamedFormatter extends UnorderedFormatter {
+    /**
+     * Returns a callback that prints the targets passed to it. The same output is produced as by
+     * {@link #outputUnordered} for all targets passed to the callback.
+     */
+    OutputFormatterCallback<Target> createStreamCallback(QueryOptions options, PrintStream out);
+  }
+
+  /**
+   * A callback that prints the targets passed to it. {@link #start} must be called before the
+   * first call to {@link #process}, and {@link #close} after the last one, so that formatters
+   * can print a header and a footer.
+   */
+  public abstract static class OutputFormatterCallback<T> implements Callback<T> {
+    public void start() throws IOException {
+    }
+
+    public void close() throws IOException {
+    }
+
+    /**
+     * Prints the given targets.
+     */
+    protected abstract void processOutput(Iterable<T> partialResult) throws IOException;
+
+    @Override
+    public final void process(Iterable<T> partialResult) throws QueryException {
+      try {
+        processOutput(partialResult);
+      } catch (IOException e) {
+        throw new QueryException("I/O error: " + e.getMessage());
+      }
+    }
+
+    /**
+     * Prints the given targets between {@link #start} and {@link #close}.
+     */
+    public void processAll(Iterable<T> targets) throws IOException {
+      start();
+      processOutput(targets);
+      close();
+    }
+  }
+
   /**
    * Returns the user-visible name of the output formatter.
    */
@@ -170,7 +235,7 @@ public abstract class OutputFormatter implements Serializable {
    * An output formatter that prints the labels of the resulting target set in
    * topological order, optionally with the target's kind.
    */
-  private static class LabelOutputFormatter extends OutputFormatter implements UnorderedFormatter{
+  private static class LabelOutputFormatter extends OutputFormatter implements StreamedFormatter {
 
     private final boolean showKind;
 
@@ -194,12 +259,29 @@ public abstract class OutputFormatter implements Serializable {
       }
     }
 
+    @Override
+    public OutputFormatterCallback<Target> createStreamCallback(final QueryOptions options,
+        final PrintStream out) {
+      return new OutputFormatterCallback<Target>() {
+        @Override
+        protected void processOutput(Iterable<Target> partialResult) {
+          outputUnordered(options, partialResult, out);
+        }
+      };
+    }
+
     @Override
     public void output(QueryOptions options, Digraph<Target> result, PrintStream out) {
       Iterable<Target> ordered = Iterables.transform(
           result.getTopologicalOrder(new TargetOrdering()), EXTRACT_NODE_LABEL);
       outputUnordered(options, ordered, out);
     }
+
+    @Override
+    public void outputOrdered(QueryOptions options, BlazeQueryEvalResult<Target> result,
+        PrintStream out) {
+      outputUnordered(options, result.getTopologicalOrder(new TargetOrdering()), out);
+    }
   }
 
   /**
@@ -240,6 +322,12 @@ public abstract class OutputFormatter implements Serializable {
           result.getTopologicalOrder(new TargetOrdering()), EXTRACT_NODE_LABEL);
       outputUnordered(options, ordered, out);
     }
+
+    @Override
+    public void outputOrdered(QueryOptions options, BlazeQueryEvalResult<Target> result,
+        PrintStream out) {
+      outputUnordered(options, result.getTopologicalOrder(new TargetOrdering()), out);
+    }
   }
 
   /**
@@ -249,7 +337,7 @@ public abstract class OutputFormatter implements Serializable {
    * line 1 is given.
    */
   private static class LocationOutputFormatter extends OutputFormatter implements
-      UnorderedFormatter {
+      StreamedFormatter {
     @Override
     public String getName() {
       return "location";
@@ -263,12 +351,29 @@ public abstract class OutputFormatter implements Serializable {
       }
     }
 
+    @Override
+    public OutputFormatterCallback<Target> createStreamCallback(final QueryOptions options,
+        final PrintStream out) {
+      return new OutputFormatterCallback<Target>() {
+        @Override
+        protected void processOutput(Iterable<Target> partialResult) {
+          outputUnordered(options, partialResult, out);
+        }
+      };
+    }
+
     @Override
     public void output(QueryOptions options, Digraph<Target> result, PrintStream out) {
       Iterable<Target> ordered = Iterables.transform(
           result.getTopologicalOrder(new TargetOrdering()), EXTRACT_NODE_LABEL);
       outputUnordered(options, ordered, out);
     }
+
+    @Override
+    public void outputOrdered(QueryOptions options, BlazeQueryEvalResult<Target> result,
+        PrintStream out) {
+      outputUnordered(options, result.getTopologicalOrder(new TargetOrdering()), out);
+    }
   }
 
   /**
@@ -276,7 +381,7 @@ public abstract class OutputFormatter implements Serializable {
    * the BUILD files. If multiple targets are generated by the same rule, it is
    * printed only once.
    */
-  private static class BuildOutputFormatter extends OutputFormatter implements UnorderedFormatter {
+  private static class BuildOutputFormatter extends OutputFormatter implements StreamedFormatter {
     @Override
     public String getName() {
       return "build";
@@ -311,7 +416,23 @@ public abstract class OutputFormatter implements Serializable {
 
     @Override
     public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out) {
-      Set<Label> printed = new HashSet<>();
+      outputRules(result, new HashSet<Label>(), out);
+    }
+
+    @Override
+    public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+        final PrintStream out) {
+      // Several targets of a batch, or of different batches, can have the same rule.
+      final Set<Label> printed = new HashSet<>();
+      return new OutputFormatterCallback<Target>() {
+        @Override
+        protected void processOutput(Iterable<Target> partialResult) {
+          outputRules(partialResult, printed, out);
+        }
+      };
+    }
+
+    private void outputRules(Iterable<Target> result, Set<Label> printed, PrintStream out) {
       for (Target target : result) {
         Rule rule = target.getAssociatedRule();
         if (rule == null || printed.contains(rule.getLabel())) {
@@ -328,6 +449,12 @@ public abstract class OutputFormatter implements Serializable {
           result.getTopologicalOrder(new TargetOrdering()), EXTRACT_NODE_LABEL);
       outputUnordered(options, ordered, out);
     }
+
+    @Override
+    public void outputOrdered(QueryOptions options, BlazeQueryEvalResult<Target> result,
+        PrintStream out) {
+      outputUnordered(options, result.getTopologicalOrder(new TargetOrdering()), out);
+    }
   }
 
   /**
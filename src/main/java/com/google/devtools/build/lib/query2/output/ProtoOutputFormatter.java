@@ -28,11 +28,13 @@ import com.google.devtools.build.lib.packages.ProtoUtils;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.FakeSubincludeTarget;
-import com.google.devtools.build.lib.query2.output.OutputFormatter.UnorderedFormatter;
+import com.google.devtools.build.lib.query2.engine.BlazeQueryEvalResult;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.syntax.SkylarkEnvironment;
 import com.google.devtools.build.lib.util.BinaryPredicate;
+import com.google.protobuf.CodedOutputStream;
 
 import java.io.IOException;
 import java.io.PrintStream;
@@ -42,8 +44,11 @@ import java.io.PrintStream;
  * of a query result and outputs the proto bytes to the output print stream.
  * By taking the bytes and calling {@code mergeFrom()} on a
  * {@code Build.QueryResult} object the full result can be reconstructed.
+ *
+ * <p>The targets are written one at a time, as the encoded {@code target} fields of the
+ * {@code Build.QueryResult}, so the result message is never built in memory.
  */
-public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFormatter {
+public class ProtoOutputFormatter extends OutputFormatter implements StreamedFormatter {
 
   /**
    * A special attribute name for the rule implementation hash code.
@@ -65,16 +70,33 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
   @Override
   public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out)
       throws IOException {
+    createStreamCallback(options, out).processAll(result);
+  }
+
+  @Override
+  public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+      PrintStream out) {
     relativeLocations = options.relativeLocations;
 
     setDependencyFilter(options);
 
-    Build.QueryResult.Builder queryResult = Build.QueryResult.newBuilder();
-    for (Target target : result) {
-      addTarget(queryResult, target);
-    }
+    final CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+    return new OutputFormatterCallback<Target>() {
+      @Override
+      protected void processOutput(Iterable<Target> partialResult) throws IOException {
+        for (Target target : partialResult) {
+          writeTarget(codedOut, toTargetProtoBuffer(target));
+        }
+        codedOut.flush();
+      }
+    };
+  }
 
-    queryResult.build().writeTo(out);
+  /**
+   * Writes a target of the query result.
+   */
+  protected void writeTarget(CodedOutputStream out, Build.Target targetPb) throws IOException {
+    out.writeMessage(Build.QueryResult.TARGET_FIELD_NUMBER, targetPb);
   }
 
   @Override
@@ -83,14 +105,11 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
     outputUnordered(options, result.getLabels(), out);
   }
 
-  /**
-   * Add the target to the query result.
-   * @param queryResult The query result that contains all rule, input and
-   *   output targets.
-   * @param target The query target being converted to a protocol buffer.
-   */
-  private void addTarget(Build.QueryResult.Builder queryResult, Target target) {
-    queryResult.addTarget(toTargetProtoBuffer(target));
+  @Override
+  public void outputOrdered(QueryOptions options, BlazeQueryEvalResult<Target> result,
+      PrintStream out) throws IOException {
+    // The proto output is not ordered, so there is no need to build the result graph.
+    outputUnordered(options, result.getResultSet(), out);
   }
 
   /**
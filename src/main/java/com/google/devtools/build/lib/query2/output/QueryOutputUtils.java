@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.query2.output;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.engine.BlazeQueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.output.OutputFormatter.UnorderedFormatter;
 
 import java.io.IOException;
@@ -30,12 +31,19 @@ public class QueryOutputUtils {
     return queryOptions.orderResults || !(formatter instanceof UnorderedFormatter);
   }
 
+  /**
+   * Returns whether the results can be printed while the query is being evaluated, using
+   * {@link StreamedFormatter#createStreamCallback}.
+   */
+  public static boolean streamResults(QueryOptions queryOptions, OutputFormatter formatter) {
+    return !orderResults(queryOptions, formatter) && formatter instanceof StreamedFormatter;
+  }
+
   public static void output(QueryOptions queryOptions, QueryEvalResult<Target> result,
       OutputFormatter formatter, PrintStream outputStream)
       throws IOException {
     if (orderResults(queryOptions, formatter)) {
-      formatter.output(queryOptions, ((BlazeQueryEvalResult<Target>) result).getResultGraph(),
-          outputStream);
+      formatter.outputOrdered(queryOptions, (BlazeQueryEvalResult<Target>) result, outputStream);
     } else {
       ((UnorderedFormatter) formatter).outputUnordered(queryOptions, result.getResultSet(),
           outputStream);
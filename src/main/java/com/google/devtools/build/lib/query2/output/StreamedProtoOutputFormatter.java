@@ -0,0 +1,37 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+
+/**
+ * An output formatter that outputs each target of the query result as a length-delimited
+ * {@code Build.Target} protocol buffer, in the format of {@code writeDelimitedTo()}. Unlike the
+ * output of {@link ProtoOutputFormatter}, it can be read one target at a time by calling
+ * {@code Build.Target.parseDelimitedFrom()} until it returns null.
+ */
+public class StreamedProtoOutputFormatter extends ProtoOutputFormatter {
+  @Override
+  public String getName() {
+    return "streamed_proto";
+  }
+
+  @Override
+  protected void writeTarget(CodedOutputStream out, Build.Target targetPb) throws IOException {
+    out.writeMessageNoTag(targetPb);
+  }
+}
@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.packages.PackageGroup;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.FakeSubincludeTarget;
+import com.google.devtools.build.lib.query2.engine.BlazeQueryEvalResult;
 import com.google.devtools.build.lib.syntax.FilesetEntry;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.BinaryPredicate;
@@ -33,6 +34,7 @@ import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Collection;
 import java.util.HashSet;
@@ -43,6 +45,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
@@ -52,7 +55,7 @@ import javax.xml.transform.stream.StreamResult;
 /**
  * An output formatter that prints the result as XML.
  */
-class XmlOutputFormatter extends OutputFormatter implements OutputFormatter.UnorderedFormatter {
+class XmlOutputFormatter extends OutputFormatter implements OutputFormatter.StreamedFormatter {
 
   private boolean xmlLineNumbers;
   private boolean showDefaultValues;
@@ -65,44 +68,80 @@ class XmlOutputFormatter extends OutputFormatter implements OutputFormatter.Unor
   }
 
   @Override
-  public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out) {
+  public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out)
+      throws IOException {
+    createStreamCallback(options, out).processAll(result);
+  }
+
+  /**
+   * Returns a callback that writes the &lt;query> element one target at a time. Every target
+   * element is serialized on its own, so that the DOM of the complete result is never built.
+   */
+  @Override
+  public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+      final PrintStream out) {
     this.xmlLineNumbers = options.xmlLineNumbers;
     this.showDefaultValues = options.xmlShowDefaultValues;
     this.relativeLocations = options.relativeLocations;
     this.dependencyFilter = OutputFormatter.getDependencyFilter(options);
 
-    Document doc;
+    final Document doc;
+    final Transformer transformer;
     try {
       DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
       doc = factory.newDocumentBuilder().newDocument();
-    } catch (ParserConfigurationException e) {
+      transformer = TransformerFactory.newInstance().newTransformer();
+    } catch (ParserConfigurationException | TransformerFactoryConfigurationError
+        | TransformerConfigurationException e) {
       // This shouldn't be possible: all the configuration is hard-coded.
       throw new IllegalStateException("XML output failed",  e);
     }
     doc.setXmlVersion("1.1");
-    Element queryElem = doc.createElement("query");
-    queryElem.setAttribute("version", "2");
-    doc.appendChild(queryElem);
-    for (Target target : result) {
-      queryElem.appendChild(createTargetElement(doc, target));
-    }
-    try {
-      Transformer transformer = TransformerFactory.newInstance().newTransformer();
-      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-      transformer.transform(new DOMSource(doc), new StreamResult(out));
-    } catch (TransformerFactoryConfigurationError | TransformerException e) {
-      // This shouldn't be possible: all the configuration is hard-coded.
-      throw new IllegalStateException("XML output failed",  e);
-    }
+    transformer.setOutputProperty(OutputKeys.VERSION, "1.1");
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+
+    return new OutputFormatterCallback<Target>() {
+      @Override
+      public void start() {
+        out.println("<?xml version=\"1.1\" encoding=\"UTF-8\" standalone=\"no\"?>");
+        out.println("<query version=\"2\">");
+      }
+
+      @Override
+      protected void processOutput(Iterable<Target> partialResult) {
+        for (Target target : partialResult) {
+          try {
+            transformer.transform(
+                new DOMSource(createTargetElement(doc, target)), new StreamResult(out));
+          } catch (TransformerException e) {
+            // This shouldn't be possible: all the configuration is hard-coded.
+            throw new IllegalStateException("XML output failed",  e);
+          }
+        }
+      }
+
+      @Override
+      public void close() {
+        out.println("</query>");
+      }
+    };
   }
 
   @Override
-  public void output(QueryOptions options, Digraph<Target> result, PrintStream out) {
+  public void output(QueryOptions options, Digraph<Target> result, PrintStream out)
+      throws IOException {
     Iterable<Target> ordered = Iterables.transform(
         result.getTopologicalOrder(new TargetOrdering()), OutputFormatter.EXTRACT_NODE_LABEL);
     outputUnordered(options, ordered, out);
   }
 
+  @Override
+  public void outputOrdered(QueryOptions options, BlazeQueryEvalResult<Target> result,
+      PrintStream out) throws IOException {
+    outputUnordered(options, result.getTopologicalOrder(new TargetOrdering()), out);
+  }
+
   /**
    * Creates and returns a new DOM tree for the specified build target.
    *
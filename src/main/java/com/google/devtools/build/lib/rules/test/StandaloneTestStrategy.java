@@ -94,7 +94,10 @@ public class StandaloneTestStrategy extends TestStrategy {
 
       resources = action.getTestProperties()
           .getLocalResourceUsage(executionOptions.usingLocalTestJobs());
-      ResourceManager.instance().acquireResources(action, resources);
+      // Start the tests that took longest in the previous build first, so that they do not end
+      // up delaying the end of the build when they are scheduled last.
+      ResourceManager.instance().acquireResources(
+          action, resources, action.getPreviousRunDurationMillis());
       TestResultData data = execute(
           actionExecutionContext.withFileOutErr(fileOutErr), spawn, action);
       appendStderr(fileOutErr.getOutputFile(), fileOutErr.getErrorFile());
@@ -137,6 +140,7 @@ public class StandaloneTestStrategy extends TestStrategy {
     Path testLogPath = action.getTestLog().getPath();
     TestResultData.Builder builder = TestResultData.newBuilder();
 
+    long startTime = executor.getClock().currentTimeMillis();
     try {
       try {
         if (executionOptions.testOutput.equals(TestOutputFormat.STREAMED)) {
@@ -157,6 +161,10 @@ public class StandaloneTestStrategy extends TestStrategy {
         builder.setTestPassed(false)
             .setStatus(BlazeTestStatus.FAILED);
       } finally {
+        long duration = executor.getClock().currentTimeMillis() - startTime;
+        builder.addTestTimes(duration);
+        builder.addTestProcessTimes(duration);
+        builder.setRunDurationMillis(duration);
         if (streamed != null) {
           streamed.close();
         }
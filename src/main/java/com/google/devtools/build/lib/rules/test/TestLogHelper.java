@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A helper class for test log handling. It determines whether the test log should
@@ -99,8 +100,12 @@ public class TestLogHelper {
   public static class FilterTestHeaderOutputStream extends FilterOutputStream {
 
     private boolean seenDelimiter = false;
-    private StringBuilder lineBuilder = new StringBuilder();
+    // Number of leading bytes of the current line that match the delimiter, or -1 if the current
+    // line cannot be the delimiter anymore.
+    private int matched = 0;
 
+    private static final byte[] DELIMITER_BYTES =
+        TestLogHelper.HEADER_DELIMITER.getBytes(StandardCharsets.ISO_8859_1);
     private static final int NEWLINE = '\n';
 
     public FilterTestHeaderOutputStream(OutputStream out) {
@@ -111,14 +116,8 @@ public class TestLogHelper {
     public void write(int b) throws IOException {
       if (seenDelimiter) {
         out.write(b);
-      } else if (b == NEWLINE) {
-        String line = lineBuilder.toString();
-        lineBuilder = new StringBuilder();
-        if (line.equals(TestLogHelper.HEADER_DELIMITER)) {
-          seenDelimiter = true;
-        }
-      } else if (lineBuilder.length() <= TestLogHelper.HEADER_DELIMITER.length()) {
-        lineBuilder.append((char) b);
+      } else {
+        seenDelimiter = isEndOfDelimiterLine(b);
       }
     }
 
@@ -126,9 +125,36 @@ public class TestLogHelper {
     public void write(byte b[], int off, int len) throws IOException {
       if (seenDelimiter) {
         out.write(b, off, len);
+        return;
+      }
+      // Scan the chunk without going through write(int) for every byte; large test logs
+      // without a header would otherwise cost a virtual call per byte.
+      int end = off + len;
+      for (int i = off; i < end; i++) {
+        if (isEndOfDelimiterLine(b[i])) {
+          seenDelimiter = true;
+          out.write(b, i + 1, end - i - 1);
+          return;
+        }
+      }
+    }
+
+    /**
+     * Consumes one byte of the filtered input and returns true if it terminates a line that
+     * consists of the header delimiter only.
+     */
+    private boolean isEndOfDelimiterLine(int b) {
+      if (b == NEWLINE) {
+        boolean found = matched == DELIMITER_BYTES.length;
+        matched = 0;
+        return found;
+      }
+      if (matched >= 0 && matched < DELIMITER_BYTES.length && DELIMITER_BYTES[matched] == b) {
+        matched++;
       } else {
-        super.write(b, off, len);
+        matched = -1;
       }
+      return false;
     }
 
     public boolean foundHeader() {
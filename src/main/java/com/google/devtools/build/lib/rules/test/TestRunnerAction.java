@@ -87,6 +87,8 @@ public class TestRunnerAction extends AbstractAction implements NotifyOnActionCa
   // Mutable state related to test caching.
   private boolean checkedCaching = false;
   private boolean unconditionalExecution = false;
+  // Wall time of the previous run of this test, as recorded in its cache status, or 0 if unknown.
+  private long previousRunDurationMillis = 0;
 
   private ImmutableMap<String, String> testEnv;
 
@@ -204,11 +206,22 @@ public class TestRunnerAction extends AbstractAction implements NotifyOnActionCa
   public boolean executeUnconditionally() {
     // Note: isVolatile must return true if executeUnconditionally can ever return true
     // for this instance.
-    unconditionalExecution = updateExecuteUnconditionallyFromTestStatus();
+    // The cache status is deleted before the test runs, so this is the last chance to read it.
+    TestResultData status = readCacheStatus();
+    previousRunDurationMillis = status != null ? status.getRunDurationMillis() : 0;
+    unconditionalExecution = updateExecuteUnconditionallyFromTestStatus(status);
     checkedCaching = true;
     return unconditionalExecution;
   }
 
+  /**
+   * Returns the wall time in milliseconds the previous run of this test took, or 0 if it is not
+   * known. May only be called after the dependency checker called executeUnconditionally().
+   */
+  public long getPreviousRunDurationMillis() {
+    return previousRunDurationMillis;
+  }
+
   @Override
   public boolean isVolatile() {
     return true;
@@ -236,7 +249,7 @@ public class TestRunnerAction extends AbstractAction implements NotifyOnActionCa
     return null;
   }
 
-  private boolean updateExecuteUnconditionallyFromTestStatus() {
+  private boolean updateExecuteUnconditionallyFromTestStatus(@Nullable TestResultData status) {
     if (configuration.cacheTestResults() == TriState.NO || testProperties.isExternal()
         || (configuration.cacheTestResults() == TriState.AUTO
             && configuration.getRunsPerTestForLabel(getOwner().getLabel()) > 1)) {
@@ -246,7 +259,6 @@ public class TestRunnerAction extends AbstractAction implements NotifyOnActionCa
     // Test will not be executed unconditionally - check whether test result exists and is
     // valid. If it is, method will return false and we will rely on the dependency checker
     // to make a decision about test execution.
-    TestResultData status = readCacheStatus();
     if (status != null) {
       if (!status.getCachable()) {
         return true;
@@ -39,6 +39,7 @@ import com.google.devtools.common.options.EnumConverter;
 import com.google.devtools.common.options.OptionsClassProvider;
 import com.google.devtools.common.options.OptionsParsingException;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -231,7 +232,7 @@ public abstract class TestStrategy implements TestActionContext {
       return null;
     }
 
-    try (InputStream fileStream = resultFile.getInputStream()) {
+    try (InputStream fileStream = new BufferedInputStream(resultFile.getInputStream())) {
       return new TestXmlOutputParser().parseXmlIntoTestResult(fileStream);
     } catch (IOException | TestXmlOutputParserException e) {
       return null;
@@ -37,6 +37,10 @@ class TestXmlOutputParser {
   private static final Collection<String> TOPLEVEL_ELEMENT_NAMES =
       ImmutableSet.of("testsuites", "testsuite");
 
+  // Looking up the StAX implementation is expensive, so it is only done once. Factories are not
+  // guaranteed to be thread-safe, hence all accesses are synchronized on it.
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
   public TestCase parseXmlIntoTestResult(InputStream xmlStream)
       throws TestXmlOutputParserException {
     return parseXmlToTree(xmlStream);
@@ -55,7 +59,9 @@ class TestXmlOutputParser {
     XMLStreamReader parser = null;
 
     try {
-      parser = XMLInputFactory.newInstance().createXMLStreamReader(xmlStream);
+      synchronized (XML_INPUT_FACTORY) {
+        parser = XML_INPUT_FACTORY.createXMLStreamReader(xmlStream);
+      }
 
       while (true) {
         int event = parser.next();
@@ -836,6 +836,10 @@ public final class BlazeRuntime {
 
     clearEventBus();
 
+    if (skyframeExecutor.getSerializedPackageCache() != null) {
+      LOG.info(skyframeExecutor.getSerializedPackageCache().toString());
+    }
+
     try {
       Profiler.instance().stop();
       MemoryProfiler.instance().stop();
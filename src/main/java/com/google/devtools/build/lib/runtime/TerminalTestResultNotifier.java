@@ -62,6 +62,13 @@ public class TerminalTestResultNotifier implements TestResultNotifier {
         help = "If true, print additional warnings when the actual test execution time does not " +
                "match the timeout defined by the test (whether implied or explicit).")
     public boolean testVerboseTimeoutWarnings;
+
+    @Option(name = "test_verbose_sharding_warnings",
+        defaultValue = "false",
+        category = "verbosity",
+        help = "If true, print a suggested shard_count for tests whose shards took a long time "
+             + "to run, based on the execution times of all their shards.")
+    public boolean testVerboseShardingWarnings;
   }
 
   private final AnsiTerminalPrinter printer;
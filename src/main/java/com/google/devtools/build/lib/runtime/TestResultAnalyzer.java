@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.packages.TestSize;
 import com.google.devtools.build.lib.packages.TestTimeout;
 import com.google.devtools.build.lib.rules.test.TestProvider;
+import com.google.devtools.build.lib.rules.test.TestProvider.TestParams;
 import com.google.devtools.build.lib.rules.test.TestResult;
 import com.google.devtools.build.lib.runtime.TerminalTestResultNotifier.TestSummaryOptions;
 import com.google.devtools.build.lib.syntax.Label;
@@ -44,6 +45,11 @@ import java.util.Set;
  */
 @ThreadCompatible
 public class TestResultAnalyzer {
+  // Shards that take longer than this (in milliseconds) make a test a candidate for more sharding.
+  private static final long SUGGESTED_SHARD_TIME_MILLIS = TestTimeout.SHORT.getTimeout() * 1000L;
+  // Same as the limit enforced on the shard_count attribute.
+  private static final int MAX_SUGGESTED_SHARDS = 50;
+
   private final Path execRoot;
   private final TestSummaryOptions summaryOptions;
   private final ExecutionOptions executionOptions;
@@ -90,8 +96,12 @@ public class TestResultAnalyzer {
     int totalRun = 0; // Number of targets running at least one non-cached test.
     int passCount = 0;
 
+    // Take a single snapshot of the results; copying it for every target would make the summary
+    // quadratic in the number of tests.
+    Map<Artifact, TestResult> statusMap = listener.getStatusMap();
+
     for (ConfiguredTarget testTarget : testTargets) {
-      TestSummary summary = aggregateAndReportSummary(testTarget, listener).build();
+      TestSummary summary = aggregateAndReportSummary(testTarget, listener, statusMap).build();
       summaries.add(summary);
 
       // Finished aggregating; build the final console output.
@@ -120,7 +130,8 @@ public class TestResultAnalyzer {
    */
   private TestSummary.Builder aggregateAndReportSummary(
       ConfiguredTarget testTarget,
-      AggregatingTestListener listener) {
+      AggregatingTestListener listener,
+      Map<Artifact, TestResult> statusMap) {
 
     // If already reported by the listener, no work remains for this target.
     TestSummary.Builder summary = listener.getCurrentSummary(testTarget);
@@ -132,7 +143,6 @@ public class TestResultAnalyzer {
     }
 
     Collection<Artifact> incompleteRuns = listener.getIncompleteRuns(testTarget);
-    Map<Artifact, TestResult> statusMap = listener.getStatusMap();
 
     // We will get back multiple TestResult instances if test had to be retried several
     // times before passing. Sharding and multiple runs of the same test without retries
@@ -269,6 +279,9 @@ public class TestResultAnalyzer {
           warnings, result.getData().getTestProcessTimesList(), target)) {
         summaryBuilder.setWasUnreportedWrongSize(true);
       }
+      if (summaryOptions.testVerboseShardingWarnings) {
+        suggestShardCount(warnings, summaryBuilder.peek().getTestTimes(), target);
+      }
     }
 
     return summaryBuilder
@@ -299,6 +312,41 @@ public class TestResultAnalyzer {
     return summary.setStatus(runStatus);
   }
 
+  /**
+   * Adds a warning with a suggested shard count once the times of all runs of the target are
+   * known, if the target's slowest shard took much longer than {@link #SUGGESTED_SHARD_TIME_MILLIS}
+   * and splitting its total execution time into more shards would shorten it considerably.
+   */
+  private static void suggestShardCount(List<String> warnings, List<Long> testTimes,
+      TransitiveInfoCollection target) {
+    TestParams testParams = target.getProvider(TestProvider.class).getTestParams();
+    int shards = Math.max(testParams.getShards(), 1);
+    if (testTimes.size() != shards * testParams.getRuns()) {
+      // Not all runs have finished yet.
+      return;
+    }
+
+    long maxTimeOfShard = 0;
+    long totalTime = 0;
+    for (Long shardTime : testTimes) {
+      if (shardTime != null) {
+        maxTimeOfShard = Math.max(maxTimeOfShard, shardTime);
+        totalTime += shardTime;
+      }
+    }
+    totalTime /= testParams.getRuns();
+
+    int suggestedShards = (int) Math.min(MAX_SUGGESTED_SHARDS,
+        (totalTime + SUGGESTED_SHARD_TIME_MILLIS - 1) / SUGGESTED_SHARD_TIME_MILLIS);
+    if (maxTimeOfShard > 2 * SUGGESTED_SHARD_TIME_MILLIS && suggestedShards >= 2 * shards) {
+      warnings.add(String.format(
+          "%s: The slowest shard of the test took %.1fs (%.1fs in total over %d shard(s)). "
+          + "Consider setting shard_count=%d.",
+          target.getLabel(), maxTimeOfShard / 1000.0, totalTime / 1000.0, shards,
+          suggestedShards));
+    }
+  }
+
   /**
    * Checks whether the specified test timeout could have been smaller and adds
    * a warning message if verbose is true.
@@ -16,17 +16,22 @@ package com.google.devtools.build.lib.runtime.commands;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.Constants;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.query2.AbstractBlazeQueryEnvironment;
+import com.google.devtools.build.lib.query2.QueryResultCache;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
 import com.google.devtools.build.lib.query2.output.OutputFormatter;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.output.QueryOptions;
 import com.google.devtools.build.lib.query2.output.QueryOutputUtils;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
@@ -43,6 +48,7 @@ import java.io.PrintStream;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Command line wrapper for executing a query with blaze.
@@ -57,6 +63,9 @@ import java.util.Set;
          canRunInOutputDirectory = true)
 public final class QueryCommand implements BlazeCommand {
 
+  // The results of recent queries. Commands live as long as the server, and so does this cache.
+  private final QueryResultCache resultCache = new QueryResultCache();
+
   @Override
   public void editOptions(BlazeRuntime runtime, OptionsParser optionsParser) { }
 
@@ -104,10 +113,11 @@ public final class QueryCommand implements BlazeCommand {
     String query = Joiner.on(' ').join(options.getResidue());
 
     Set<Setting> settings = queryOptions.toSettings();
+    boolean orderResults = QueryOutputUtils.orderResults(queryOptions, formatter);
     AbstractBlazeQueryEnvironment<Target> env = newQueryEnvironment(
         runtime,
         queryOptions.keepGoing,
-        QueryOutputUtils.orderResults(queryOptions, formatter),
+        orderResults,
         queryOptions.universeScope, queryOptions.loadingPhaseThreads,
         settings);
 
@@ -121,14 +131,34 @@ public final class QueryCommand implements BlazeCommand {
       return ExitCode.COMMAND_LINE_ERROR;
     }
 
-    // 2. Evaluate expression:
-    QueryEvalResult<Target> result;
+    // 2. Evaluate expression, unless its result is known from an earlier query:
+    long version;
     try {
-      result = env.evaluateQuery(expr);
-    } catch (QueryException e) {
-      // Keep consistent with reportBuildFileError()
-      runtime.getReporter().handle(Event.error(e.getMessage()));
-      return ExitCode.ANALYSIS_FAILURE;
+      version = runtime.getSkyframeExecutor().getLoadingPhaseVersion(runtime.getReporter());
+    } catch (InterruptedException e) {
+      runtime.getReporter().handle(Event.error("query interrupted"));
+      return ExitCode.INTERRUPTED;
+    }
+    // The parsed expression prints in a canonical form, so that differences in whitespace or
+    // quoting do not matter.
+    String cacheKey = Joiner.on('\n').join(expr, runtime.getWorkingDirectory(),
+        runtime.getPackageManager().getPackagePath(), queryOptions.keepGoing, orderResults,
+        queryOptions.universeScope, settings);
+    QueryEvalResult<Target> result = resultCache.get(version, cacheKey);
+    if (result == null) {
+      if (QueryOutputUtils.streamResults(queryOptions, formatter)) {
+        return streamQuery(runtime, env, expr, (StreamedFormatter) formatter, queryOptions);
+      }
+      try {
+        result = env.evaluateQuery(expr);
+      } catch (QueryException e) {
+        // Keep consistent with reportBuildFileError()
+        runtime.getReporter().handle(Event.error(e.getMessage()));
+        return ExitCode.ANALYSIS_FAILURE;
+      }
+      if (result.getSuccess()) {
+        resultCache.put(version, cacheKey, result);
+      }
     }
 
     // 3. Output results:
@@ -151,6 +181,49 @@ public final class QueryCommand implements BlazeCommand {
     return result.getSuccess() ? ExitCode.SUCCESS : ExitCode.PARTIAL_ANALYSIS_FAILURE;
   }
 
+  /**
+   * Evaluates the query and prints the results as they are computed.
+   */
+  private static ExitCode streamQuery(BlazeRuntime runtime,
+      AbstractBlazeQueryEnvironment<Target> env, QueryExpression expr,
+      StreamedFormatter formatter, QueryOptions queryOptions) {
+    PrintStream output = new PrintStream(runtime.getReporter().getOutErr().getOutputStream());
+    final OutputFormatterCallback<Target> outputCallback =
+        formatter.createStreamCallback(queryOptions, output);
+    final AtomicBoolean empty = new AtomicBoolean(true);
+    boolean success;
+    try {
+      outputCallback.start();
+      success = env.evaluateQuery(expr, new Callback<Target>() {
+        @Override
+        public void process(Iterable<Target> partialResult) throws QueryException {
+          if (!Iterables.isEmpty(partialResult)) {
+            empty.set(false);
+            outputCallback.process(partialResult);
+          }
+        }
+      });
+      outputCallback.close();
+    } catch (QueryException e) {
+      // Keep consistent with reportBuildFileError()
+      runtime.getReporter().handle(Event.error(e.getMessage()));
+      return ExitCode.ANALYSIS_FAILURE;
+    } catch (ClosedByInterruptException e) {
+      runtime.getReporter().handle(Event.error("query interrupted"));
+      return ExitCode.INTERRUPTED;
+    } catch (IOException e) {
+      runtime.getReporter().handle(Event.error("I/O error: " + e.getMessage()));
+      return ExitCode.LOCAL_ENVIRONMENTAL_ERROR;
+    } finally {
+      output.flush();
+    }
+    if (empty.get()) {
+      runtime.getReporter().handle(Event.info("Empty results"));
+    }
+
+    return success ? ExitCode.SUCCESS : ExitCode.PARTIAL_ANALYSIS_FAILURE;
+  }
+
   @VisibleForTesting // for com.google.devtools.deps.gquery.test.QueryResultTestUtil
   public static AbstractBlazeQueryEnvironment<Target> newQueryEnvironment(BlazeRuntime runtime,
       boolean keepGoing, boolean orderedResults, int loadingPhaseThreads,
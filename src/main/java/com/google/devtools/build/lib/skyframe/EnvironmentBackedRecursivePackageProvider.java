@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.skyframe;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
@@ -99,6 +100,23 @@ public final class EnvironmentBackedRecursivePackageProvider implements Recursiv
     return Iterables.transform(lookup.getPackages(), PathFragment.TO_PATH_FRAGMENT);
   }
 
+  @Override
+  public void prefetchPackages(EventHandler eventHandler,
+      Iterable<PackageIdentifier> packageNames) throws MissingDepException {
+    ImmutableList.Builder<SkyKey> keys = ImmutableList.builder();
+    for (PackageIdentifier packageName : packageNames) {
+      keys.add(PackageLookupValue.key(packageName.getPackageFragment()));
+      keys.add(PackageValue.key(packageName));
+    }
+    // Requests all packages in one dependency group, so that they are loaded in parallel instead
+    // of one per restart of the calling function. The results are retrieved by getPackage.
+    env.getValuesOrThrow(keys.build(), NoSuchPackageException.class,
+        InconsistentFilesystemException.class);
+    if (env.valuesMissing()) {
+      throw new MissingDepException();
+    }
+  }
+
   @Override
   public Target getTarget(EventHandler eventHandler, Label label) throws NoSuchPackageException,
       NoSuchTargetException, MissingDepException {
@@ -14,8 +14,6 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.base.Preconditions;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.vfs.Dirent;
@@ -29,7 +27,11 @@ import com.google.devtools.build.skyframe.SkyFunctionException.Transience;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -40,9 +42,6 @@ import javax.annotation.Nullable;
  */
 final class GlobFunction implements SkyFunction {
 
-  private final Cache<String, Pattern> regexPatternCache =
-      CacheBuilder.newBuilder().concurrencyLevel(4).build();
-
   @Override
   public SkyValue compute(SkyKey skyKey, Environment env) throws GlobFunctionException {
     GlobDescriptor glob = (GlobDescriptor) skyKey.argument();
@@ -86,28 +85,28 @@ final class GlobFunction implements SkyFunction {
       patternTail = pattern.substring(slashPos + 1);
     }
 
-    NestedSetBuilder<PathFragment> matches = NestedSetBuilder.stableOrder();
+    // The directories below the glob's directory are globbed by GlobValues of their own. All the
+    // values needed for the entries of a directory are requested as a single group, so that
+    // Skyframe evaluates them (and checks them for changes in incremental builds) in parallel
+    // instead of one after the other.
+    List<SkyKey> keys = new ArrayList<>();
 
     // "**" also matches an empty segment, so try the case where it is not present.
-    if ("**".equals(patternHead)) {
-      if (patternTail == null) {
-        if (!glob.excludeDirs()) {
-          matches.add(globSubdir);
-        }
-      } else {
-        SkyKey globKey = GlobValue.internalKey(
-            glob.getPackageId(), globSubdir, patternTail, glob.excludeDirs());
-        GlobValue globValue = (GlobValue) env.getValue(globKey);
-        if (globValue == null) {
-          return null;
-        }
-        matches.addTransitive(globValue.getMatches());
-      }
+    SkyKey emptySegmentKey = null;
+    if ("**".equals(patternHead) && patternTail != null) {
+      emptySegmentKey = GlobValue.internalKey(
+          glob.getPackageId(), globSubdir, patternTail, glob.excludeDirs());
+      keys.add(emptySegmentKey);
     }
 
     PathFragment dirPathFragment = glob.getPackageId().getPackageFragment().getRelative(globSubdir);
     RootedPath dirRootedPath = RootedPath.toRootedPath(globPkgLookupValue.getRoot(),
         dirPathFragment);
+    String subdirPattern = "**".equals(patternHead) ? glob.getPattern() : patternTail;
+    boolean directResult = patternTail == null;
+    // The names of the matching files, in directory order, and whether each of them is a
+    // directory. Symlinks map to null until their target has been looked up.
+    Map<String, Boolean> matchingFiles = new LinkedHashMap<>();
     if (containsGlobs(patternHead)) {
       // Pattern contains globs, so a directory listing is required.
       //
@@ -122,13 +121,11 @@ final class GlobFunction implements SkyFunction {
         return null;
       }
 
+      Map<String, SkyKey> symlinkKeys = new LinkedHashMap<>();
       for (Dirent dirent : listingValue.getDirents()) {
         Type direntType = dirent.getType();
         String fileName = dirent.getName();
-
-        boolean isDirectory = (direntType == Dirent.Type.DIRECTORY);
-
-        if (!UnixGlob.matches(patternHead, fileName, regexPatternCache)) {
+        if (!UnixGlob.matches(patternHead, fileName)) {
           continue;
         }
 
@@ -137,24 +134,46 @@ final class GlobFunction implements SkyFunction {
           // For symlinks, look up the corresponding FileValue. This ensures that if the symlink
           // changes and "switches types" (say, from a file to a directory), this value will be
           // invalidated.
-          RootedPath symlinkRootedPath = RootedPath.toRootedPath(globPkgLookupValue.getRoot(),
-              dirPathFragment.getRelative(fileName));
-          FileValue symlinkFileValue = (FileValue) env.getValue(FileValue.key(symlinkRootedPath));
+          SkyKey symlinkKey = FileValue.key(RootedPath.toRootedPath(globPkgLookupValue.getRoot(),
+              dirPathFragment.getRelative(fileName)));
+          symlinkKeys.put(fileName, symlinkKey);
+          keys.add(symlinkKey);
+          // Keep the position of the symlink in the result.
+          matchingFiles.put(fileName, null);
+        } else {
+          boolean isDirectory = (direntType == Dirent.Type.DIRECTORY);
+          matchingFiles.put(fileName, isDirectory);
+          addDepKeys(fileName, glob, subdirPattern, directResult, isDirectory, keys);
+        }
+      }
+
+      Map<SkyKey, SkyValue> values = env.getValues(keys);
+      if (!symlinkKeys.isEmpty()) {
+        // The values needed for the symlinks can only be requested once their targets are known.
+        keys = new ArrayList<>();
+        for (Map.Entry<String, SkyKey> symlink : symlinkKeys.entrySet()) {
+          FileValue symlinkFileValue = (FileValue) values.get(symlink.getValue());
           if (symlinkFileValue == null) {
             continue;
           }
           if (!symlinkFileValue.isSymlink()) {
             throw new GlobFunctionException(new InconsistentFilesystemException(
-                "readdir and stat disagree about whether " + symlinkRootedPath.asPath()
-                    + " is a symlink."), Transience.TRANSIENT);
+                "readdir and stat disagree about whether "
+                + ((RootedPath) symlink.getValue().argument()).asPath() + " is a symlink."),
+                Transience.TRANSIENT);
           }
-          isDirectory = symlinkFileValue.isDirectory();
+          matchingFiles.put(symlink.getKey(), symlinkFileValue.isDirectory());
+          addDepKeys(symlink.getKey(), glob, subdirPattern, directResult,
+              symlinkFileValue.isDirectory(), keys);
         }
-
-        String subdirPattern = "**".equals(patternHead) ? glob.getPattern() : patternTail;
-        addFile(fileName, glob, subdirPattern, patternTail == null, isDirectory,
-            matches, env);
+        values = new HashMap<>(values);
+        values.putAll(env.getValues(keys));
       }
+      if (env.valuesMissing()) {
+        return null;
+      }
+      return collectMatches(glob, emptySegmentKey, matchingFiles, subdirPattern, directResult,
+          values);
     } else {
       // Pattern does not contain globs, so a direct stat is enough.
       String fileName = patternHead;
@@ -165,21 +184,16 @@ final class GlobFunction implements SkyFunction {
         return null;
       }
       if (fileValue.exists()) {
-        addFile(fileName, glob, patternTail, patternTail == null,
-            fileValue.isDirectory(), matches, env);
+        matchingFiles.put(fileName, fileValue.isDirectory());
+        addDepKeys(fileName, glob, patternTail, directResult, fileValue.isDirectory(), keys);
       }
+      Map<SkyKey, SkyValue> values = env.getValues(keys);
+      if (env.valuesMissing()) {
+        return null;
+      }
+      return collectMatches(glob, emptySegmentKey, matchingFiles, patternTail, directResult,
+          values);
     }
-
-    if (env.valuesMissing()) {
-      return null;
-    }
-
-    NestedSet<PathFragment> matchesBuilt = matches.build();
-    // Use the same value to represent that we did not match anything.
-    if (matchesBuilt.isEmpty()) {
-      return GlobValue.EMPTY;
-    }
-    return new GlobValue(matchesBuilt);
   }
 
   /**
@@ -190,47 +204,70 @@ final class GlobFunction implements SkyFunction {
   }
 
   /**
-   * Includes the given file/directory in the glob.
-   *
-   * <p>{@code fileName} must exist.
+   * Adds the keys of the values that are needed to include the given file/directory in the glob.
    *
    * <p>{@code isDirectory} must be true iff the file is a directory.
    *
    * <p>{@code directResult} must be set if the file should be included in the result set
    * directly rather than recursed into if it is a directory.
    */
-  private void addFile(String fileName, GlobDescriptor glob, String subdirPattern,
-      boolean directResult, boolean isDirectory, NestedSetBuilder<PathFragment> matches,
-      Environment env) {
+  private static void addDepKeys(String fileName, GlobDescriptor glob, String subdirPattern,
+      boolean directResult, boolean isDirectory, List<SkyKey> keys) {
     if (isDirectory && subdirPattern != null) {
       // This is a directory, and the pattern covers files under that directory.
-      SkyKey subdirGlobKey = GlobValue.internalKey(glob.getPackageId(),
-          glob.getSubdir().getRelative(fileName), subdirPattern, glob.excludeDirs());
-      GlobValue subdirGlob = (GlobValue) env.getValue(subdirGlobKey);
-      if (subdirGlob == null) {
-        return;
-      }
-      matches.addTransitive(subdirGlob.getMatches());
+      keys.add(GlobValue.internalKey(glob.getPackageId(),
+          glob.getSubdir().getRelative(fileName), subdirPattern, glob.excludeDirs()));
+    }
+    if (directResult && isDirectory && !glob.excludeDirs()) {
+      // Ensure that subdirectories that contain other packages are not picked up.
+      keys.add(PackageLookupValue.key(glob.getPackageId().getPackageFragment()
+          .getRelative(glob.getSubdir()).getRelative(fileName)));
+    }
+  }
+
+  /**
+   * Builds the value of a glob from the files matching its first segment and the values
+   * requested for them by {@link #addDepKeys}, all of which must be present.
+   */
+  private static GlobValue collectMatches(GlobDescriptor glob, @Nullable SkyKey emptySegmentKey,
+      Map<String, Boolean> matchingFiles, String subdirPattern, boolean directResult,
+      Map<SkyKey, SkyValue> values) {
+    NestedSetBuilder<PathFragment> matches = NestedSetBuilder.stableOrder();
+    if (emptySegmentKey != null) {
+      matches.addTransitive(((GlobValue) values.get(emptySegmentKey)).getMatches());
+    } else if ("**".equals(glob.getPattern()) && !glob.excludeDirs()) {
+      matches.add(glob.getSubdir());
     }
 
-    if (directResult && !(isDirectory && glob.excludeDirs())) {
-      if (isDirectory) {
-        // TODO(bazel-team): Refactor. This is basically inlined code from the next recursion level.
-        // Ensure that subdirectories that contain other packages are not picked up.
-        PathFragment directory = glob.getPackageId().getPackageFragment()
-            .getRelative(glob.getSubdir()).getRelative(fileName);
-        PackageLookupValue pkgLookupValue = (PackageLookupValue)
-            env.getValue(PackageLookupValue.key(directory));
-        if (pkgLookupValue == null) {
-          return;
-        }
-        if (pkgLookupValue.packageExists()) {
-          // The file is a directory and contains another package.
-          return;
+    for (Map.Entry<String, Boolean> file : matchingFiles.entrySet()) {
+      String fileName = file.getKey();
+      boolean isDirectory = file.getValue();
+      if (isDirectory && subdirPattern != null) {
+        SkyKey subdirGlobKey = GlobValue.internalKey(glob.getPackageId(),
+            glob.getSubdir().getRelative(fileName), subdirPattern, glob.excludeDirs());
+        matches.addTransitive(((GlobValue) values.get(subdirGlobKey)).getMatches());
+      }
+
+      if (directResult && !(isDirectory && glob.excludeDirs())) {
+        if (isDirectory) {
+          PackageLookupValue pkgLookupValue = (PackageLookupValue) values.get(
+              PackageLookupValue.key(glob.getPackageId().getPackageFragment()
+                  .getRelative(glob.getSubdir()).getRelative(fileName)));
+          if (pkgLookupValue.packageExists()) {
+            // The file is a directory and contains another package.
+            continue;
+          }
         }
+        matches.add(glob.getSubdir().getRelative(fileName));
       }
-      matches.add(glob.getSubdir().getRelative(fileName));
     }
+
+    NestedSet<PathFragment> matchesBuilt = matches.build();
+    // Use the same value to represent that we did not match anything.
+    if (matchesBuilt.isEmpty()) {
+      return GlobValue.EMPTY;
+    }
+    return new GlobValue(matchesBuilt);
   }
 
   @Nullable
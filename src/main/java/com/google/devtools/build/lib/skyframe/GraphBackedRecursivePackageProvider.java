@@ -32,7 +32,13 @@ import com.google.devtools.build.skyframe.WalkableGraph;
 
 import java.util.Collections;
 
-/** A {@link RecursivePackageProvider} backed by a {@link WalkableGraph}. */
+/**
+ * A {@link RecursivePackageProvider} backed by a {@link WalkableGraph}.
+ *
+ * <p>The provider never evaluates anything. The graph must already contain everything that may be
+ * asked for, e.g. the transitive closure of the patterns that are being resolved; nodes that are
+ * missing from it are treated as if they did not exist.
+ */
 public final class GraphBackedRecursivePackageProvider implements RecursivePackageProvider {
 
   private final WalkableGraph graph;
@@ -60,7 +66,7 @@ public final class GraphBackedRecursivePackageProvider implements RecursivePacka
       }
     } else {
       // If the package key does not exist in the graph, then it must not correspond to any package,
-      // because the SkyQuery environment has already loaded the universe.
+      // because the graph is expected to contain all packages that may be asked for.
       throw new BuildFileNotFoundException(packageName.toString(),
           "BUILD file not found on package path");
     }
@@ -72,7 +78,7 @@ public final class GraphBackedRecursivePackageProvider implements RecursivePacka
     SkyKey packageLookupKey = PackageLookupValue.key(new PathFragment(packageName));
     if (!graph.exists(packageLookupKey)) {
       // If the package lookup key does not exist in the graph, then it must not correspond to any
-      // package, because the SkyQuery environment has already loaded the universe.
+      // package, because the graph is expected to contain all packages that may be asked for.
       return false;
     }
     PackageLookupValue packageLookupValue = (PackageLookupValue) graph.getValue(packageLookupKey);
@@ -96,8 +102,8 @@ public final class GraphBackedRecursivePackageProvider implements RecursivePacka
     SkyKey recursivePackageKey = RecursivePkgValue.key(directory);
     if (!graph.exists(recursivePackageKey)) {
       // If the recursive package key does not exist in the graph, then it must not correspond to
-      // any directory transitively containing packages, because the SkyQuery environment has
-      // already loaded the universe.
+      // any directory transitively containing packages, because the graph is expected to contain
+      // all directories that may be asked for.
       return Collections.emptyList();
     }
     // If the recursive package key exists in the graph, then it must have a value and must not
@@ -109,6 +115,12 @@ public final class GraphBackedRecursivePackageProvider implements RecursivePacka
     return Iterables.transform(lookup.getPackages(), PathFragment.TO_PATH_FRAGMENT);
   }
 
+  @Override
+  public void prefetchPackages(EventHandler eventHandler,
+      Iterable<PackageIdentifier> packageNames) {
+    // Nothing to do: the packages are either in the graph already or treated as nonexistent.
+  }
+
   @Override
   public Target getTarget(EventHandler eventHandler, Label label)
       throws NoSuchPackageException, NoSuchTargetException {
@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.Constants;
@@ -28,22 +29,30 @@ import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.BuildFileContainsErrorsException;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.CachingPackageLocator;
 import com.google.devtools.build.lib.packages.InvalidPackageNameException;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
+import com.google.devtools.build.lib.packages.NoSuchTargetException;
 import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageDeserializer;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationException;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.PackageFactory.Globber;
 import com.google.devtools.build.lib.packages.PackageIdentifier;
 import com.google.devtools.build.lib.packages.PackageIdentifier.RepositoryName;
 import com.google.devtools.build.lib.packages.PackageLoadedEvent;
+import com.google.devtools.build.lib.packages.PackageSerializer;
 import com.google.devtools.build.lib.packages.Preprocessor;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.packages.RuleVisibility;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
 import com.google.devtools.build.lib.skyframe.ASTFileLookupValue.ASTLookupInputException;
 import com.google.devtools.build.lib.skyframe.GlobValue.InvalidGlobPatternException;
 import com.google.devtools.build.lib.skyframe.SkylarkImportLookupFunction.SkylarkImportFailedException;
@@ -54,6 +63,7 @@ import com.google.devtools.build.lib.syntax.ParserInputSource;
 import com.google.devtools.build.lib.syntax.SkylarkEnvironment;
 import com.google.devtools.build.lib.syntax.Statement;
 import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.JavaClock;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.vfs.Path;
@@ -68,16 +78,20 @@ import com.google.devtools.build.skyframe.ValueOrException3;
 import com.google.devtools.build.skyframe.ValueOrException4;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
@@ -86,6 +100,8 @@ import javax.annotation.Nullable;
  */
 public class PackageFunction implements SkyFunction {
 
+  private static final Logger LOG = Logger.getLogger(PackageFunction.class.getName());
+
   private final EventHandler reporter;
   private final PackageFactory packageFactory;
   private final CachingPackageLocator packageLocator;
@@ -93,6 +109,7 @@ public class PackageFunction implements SkyFunction {
   private final AtomicBoolean showLoadingProgress;
   private final AtomicReference<EventBus> eventBus;
   private final AtomicInteger numPackagesLoaded;
+  private final AtomicReference<SerializedPackageCache> serializedPackageCache;
   private final Profiler profiler = Profiler.instance();
 
   private static final PathFragment PRELUDE_FILE_FRAGMENT =
@@ -108,7 +125,8 @@ public class PackageFunction implements SkyFunction {
   public PackageFunction(Reporter reporter, PackageFactory packageFactory,
       CachingPackageLocator pkgLocator, AtomicBoolean showLoadingProgress,
       ConcurrentMap<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache,
-      AtomicReference<EventBus> eventBus, AtomicInteger numPackagesLoaded) {
+      AtomicReference<EventBus> eventBus, AtomicInteger numPackagesLoaded,
+      AtomicReference<SerializedPackageCache> serializedPackageCache) {
     this.reporter = reporter;
 
     this.packageFactory = packageFactory;
@@ -117,6 +135,7 @@ public class PackageFunction implements SkyFunction {
     this.packageFunctionCache = packageFunctionCache;
     this.eventBus = eventBus;
     this.numPackagesLoaded = numPackagesLoaded;
+    this.serializedPackageCache = serializedPackageCache;
   }
 
   private static void maybeThrowFilesystemInconsistency(String packageName,
@@ -466,6 +485,27 @@ public class PackageFunction implements SkyFunction {
       return null;
     }
 
+    // Only packages that neither load Skylark extensions nor subinclude files are cached.
+    SerializedPackageCache cache = serializedPackageCache.get();
+    String cacheKey = null;
+    if (cache != null && replacementContents == null && importResult.fileDependencies.isEmpty()) {
+      cacheKey = cache.key(packageId, buildFilePath, inputSource.getContent(), defaultVisibility,
+          preludeStatements);
+      SerializedPackageCache.Entry entry =
+          packageFunctionCache.containsKey(packageId) ? null : cache.get(cacheKey);
+      if (entry != null) {
+        Package cachedPkg = getCachedPackage(entry, packageId, buildFilePath, env);
+        if (env.valuesMissing()) {
+          return null;
+        }
+        if (cachedPkg != null) {
+          cache.recordLookup(true);
+          Event.replayEventsOn(env.getListener(), cachedPkg.getEvents());
+          return new PackageValue(cachedPkg);
+        }
+      }
+    }
+
     Package.LegacyBuilder legacyPkgBuilder = loadPackage(externalPkg, inputSource,
         replacementContents, packageId, buildFilePath, defaultVisibility, preludeStatements,
         importResult);
@@ -509,9 +549,196 @@ public class PackageFunction implements SkyFunction {
           "Package '" + packageName + "' contains errors"),
           pkg.containsTemporaryErrors() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
+    if (cacheKey != null) {
+      cache.recordLookup(false);
+      SerializedPackageCache.Entry entry = createCacheEntry(pkg, globPatterns, env);
+      if (entry != null) {
+        cache.put(cacheKey, entry);
+      }
+    }
     return new PackageValue(pkg);
   }
 
+  /**
+   * Returns the package of a cache entry, or null if the entry is stale or the file system
+   * state it depends on cannot be computed without errors. In the latter case, the regular
+   * package loading reports the errors.
+   */
+  @Nullable
+  private Package getCachedPackage(SerializedPackageCache.Entry entry,
+      PackageIdentifier packageId, Path buildFilePath, Environment env) {
+    List<SkyKey> globKeys = getGlobKeys(packageId, entry.getGlobPatterns());
+    if (globKeys == null) {
+      return null;
+    }
+    List<SkyKey> containingPkgLookupKeys = new ArrayList<>();
+    for (PathFragment subdirectory : entry.getSubdirectories()) {
+      containingPkgLookupKeys.add(ContainingPackageLookupValue.key(
+          new PackageIdentifier(packageId.getRepository(), subdirectory)));
+    }
+    // Request both groups before checking for missing values, so that a stale entry costs at
+    // most one restart.
+    Map<SkyKey, ValueOrException4<IOException, BuildFileNotFoundException,
+        FileSymlinkCycleException, InconsistentFilesystemException>> globValues =
+            env.getValuesOrThrow(globKeys, IOException.class, BuildFileNotFoundException.class,
+                FileSymlinkCycleException.class, InconsistentFilesystemException.class);
+    Map<SkyKey, ValueOrException3<BuildFileNotFoundException, InconsistentFilesystemException,
+        FileSymlinkCycleException>> containingPkgLookupValues = env.getValuesOrThrow(
+            containingPkgLookupKeys, BuildFileNotFoundException.class,
+            InconsistentFilesystemException.class, FileSymlinkCycleException.class);
+    if (env.valuesMissing()) {
+      return null;
+    }
+    try {
+      List<GlobValue> globs = new ArrayList<>();
+      for (SkyKey globKey : globKeys) {
+        globs.add((GlobValue) globValues.get(globKey).get());
+      }
+      if (!getGlobDigest(globs).equals(entry.getGlobDigest())) {
+        return null;
+      }
+      for (ValueOrException3<BuildFileNotFoundException, InconsistentFilesystemException,
+          FileSymlinkCycleException> valueOrException : containingPkgLookupValues.values()) {
+        // A target in a subdirectory that became a package now crosses a package boundary.
+        ContainingPackageLookupValue value =
+            (ContainingPackageLookupValue) valueOrException.get();
+        if (!value.hasContainingPackage()
+            || !value.getContainingPackageName().equals(packageId)) {
+          return null;
+        }
+      }
+    } catch (IOException | BuildFileNotFoundException | FileSymlinkCycleException
+        | InconsistentFilesystemException e) {
+      return null;
+    }
+    try {
+      return new PackageDeserializer(buildFilePath.getFileSystem(),
+          packageFactory.getRuleClassProvider()).deserialize(entry.getPackage());
+    } catch (PackageDeserializationException e) {
+      LOG.log(Level.FINE, "Cannot deserialize cached package " + packageId, e);
+      return null;
+    } catch (RuntimeException e) {
+      // The entry passed the round trip when it was written, so this is a bug; fall back to
+      // loading the BUILD file rather than failing the build.
+      LOG.log(Level.WARNING, "Unexpected error deserializing cached package " + packageId, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the cache entry for a package that was loaded without errors, or null if the
+   * package cannot be serialized faithfully.
+   */
+  @Nullable
+  private SerializedPackageCache.Entry createCacheEntry(Package pkg,
+      Collection<Pair<String, Boolean>> globPatterns, Environment env) {
+    if (!pkg.getSubincludeLabels().isEmpty()) {
+      return null;
+    }
+    RuleClassProvider ruleClassProvider = packageFactory.getRuleClassProvider();
+    Set<PathFragment> subdirectories = new TreeSet<>();
+    for (Target target : pkg.getTargets()) {
+      if (target instanceof Rule) {
+        Rule rule = (Rule) target;
+        // Rules of Skylark rule classes cannot be deserialized, and the serialized form of
+        // configurable attributes only lists their possible values.
+        if (ruleClassProvider.getRuleClassMap().get(rule.getRuleClass())
+            != rule.getRuleClassObject()) {
+          return null;
+        }
+        for (Attribute attribute : rule.getAttributes()) {
+          if (rule.isConfigurableAttribute(attribute.getName())) {
+            return null;
+          }
+        }
+      }
+      PathFragment dir = target.getLabel().toPathFragment().getParentDirectory();
+      if (!dir.equals(pkg.getNameFragment())) {
+        subdirectories.add(dir);
+      }
+    }
+
+    // The globs are dependencies that were already computed without errors.
+    List<SkyKey> globKeys = getGlobKeys(pkg.getPackageIdentifier(), globPatterns);
+    List<GlobValue> globs = new ArrayList<>();
+    Map<SkyKey, SkyValue> globValues = env.getValues(globKeys);
+    for (SkyKey globKey : globKeys) {
+      GlobValue glob = (GlobValue) globValues.get(globKey);
+      if (glob == null) {
+        return null;
+      }
+      globs.add(glob);
+    }
+
+    Build.Package packagePb = PackageSerializer.serializePackage(pkg);
+    try {
+      // Only cache packages that survive a round trip, so that a cache hit never yields a
+      // package that differs from the one the BUILD file would produce.
+      Package copy = new PackageDeserializer(pkg.getFilename().getFileSystem(),
+          ruleClassProvider).deserialize(packagePb);
+      if (!PackageSerializer.serializePackage(copy).equals(packagePb)
+          || losesUnserializedState(pkg, copy)) {
+        return null;
+      }
+    } catch (PackageDeserializationException e) {
+      LOG.log(Level.FINE, "Cannot cache package " + pkg.getName(), e);
+      return null;
+    } catch (RuntimeException e) {
+      // Most likely a bug in the serializer; the package is then only loaded without the cache.
+      LOG.log(Level.WARNING, "Unexpected error serializing package " + pkg.getName()
+          + " for the cache", e);
+      return null;
+    }
+    return new SerializedPackageCache.Entry(globPatterns, getGlobDigest(globs), subdirectories,
+        packagePb);
+  }
+
+  /**
+   * Returns whether the deserialized copy of a package lacks state that {@link PackageSerializer}
+   * does not write, and that the round trip of the serialized form therefore cannot detect.
+   */
+  private static boolean losesUnserializedState(Package pkg, Package copy) {
+    if (!pkg.getDefaultCompatibleWith().equals(copy.getDefaultCompatibleWith())
+        || !pkg.getDefaultRestrictedTo().equals(copy.getDefaultRestrictedTo())) {
+      return true;
+    }
+    // Rules take the workspace name from the WORKSPACE file, which is not part of the key.
+    for (Rule rule : pkg.getTargets(Rule.class)) {
+      try {
+        Target copiedRule = copy.getTarget(rule.getName());
+        if (!(copiedRule instanceof Rule)
+            || !rule.getWorkspaceName().equals(((Rule) copiedRule).getWorkspaceName())) {
+          return true;
+        }
+      } catch (NoSuchTargetException e) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Nullable
+  private static List<SkyKey> getGlobKeys(PackageIdentifier packageId,
+      Collection<Pair<String, Boolean>> globPatterns) {
+    List<SkyKey> globKeys = new ArrayList<>();
+    for (Pair<String, Boolean> globPattern : globPatterns) {
+      try {
+        globKeys.add(GlobValue.key(packageId, globPattern.getFirst(), globPattern.getSecond()));
+      } catch (InvalidGlobPatternException e) {
+        return null;
+      }
+    }
+    return globKeys;
+  }
+
+  private static String getGlobDigest(List<GlobValue> globs) {
+    Fingerprint fp = new Fingerprint();
+    for (GlobValue glob : globs) {
+      fp.addPaths(Ordering.natural().sortedCopy(glob.getMatches()));
+    }
+    return fp.hexDigestAndReset();
+  }
+
   private SkylarkImportResult fetchImportsFromBuildFile(Path buildFilePath,
       PathFragment buildFileFragment, RepositoryName repo,
       List<Statement> preludeStatements, ParserInputSource inputSource,
@@ -34,6 +34,9 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.RootedPath;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A {@link TargetPatternResolver} backed by a {@link RecursivePackageProvider}.
  */
@@ -172,16 +175,21 @@ public class RecursivePackageProviderBackedTargetPatternResolver
       throw new TargetParsingException("'" + pathPrefix + "' is not a valid package name");
     }
 
-    ResolvedTargets.Builder<Target> builder = ResolvedTargets.builder();
-
+    List<PathFragment> packagesUnderDirectory = new ArrayList<>();
+    List<PackageIdentifier> packageIds = new ArrayList<>();
     for (Path root : pkgPath.getPathEntries()) {
       RootedPath rootedPath = RootedPath.toRootedPath(root, directory);
-      Iterable<PathFragment> packagesUnderDirectory = recursivePackageProvider
-          .getPackagesUnderDirectory(rootedPath);
-      for (PathFragment pkg : packagesUnderDirectory) {
-        builder.merge(getTargetsInPackage(originalPattern, pkg, FilteringPolicies.NO_FILTER));
+      for (PathFragment pkg : recursivePackageProvider.getPackagesUnderDirectory(rootedPath)) {
+        packagesUnderDirectory.add(pkg);
+        packageIds.add(PackageIdentifier.createInDefaultRepo(pkg));
       }
     }
+    recursivePackageProvider.prefetchPackages(eventHandler, packageIds);
+
+    ResolvedTargets.Builder<Target> builder = ResolvedTargets.builder();
+    for (PathFragment pkg : packagesUnderDirectory) {
+      builder.merge(getTargetsInPackage(originalPattern, pkg, FilteringPolicies.NO_FILTER));
+    }
 
     if (builder.isEmpty()) {
       throw new TargetParsingException("no targets found beneath '" + directory + "'");
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.skyframe;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.Order;
@@ -31,6 +32,7 @@ import com.google.devtools.build.skyframe.SkyValue;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
@@ -40,16 +42,30 @@ import javax.annotation.Nullable;
  *
  * <p>Example: foo/BUILD, foo/sub/x, foo/subpkg/BUILD would yield transitive packages "foo" and
  * "foo/subpkg".
+ *
+ * <p>Directories excluded with {@code --experimental_recursive_package_excludes} are not
+ * searched, which avoids looking at every directory of large trees that contain no packages.
  */
 public class RecursivePkgFunction implements SkyFunction {
 
   private static final Order ORDER = Order.STABLE_ORDER;
 
+  private final AtomicReference<ImmutableSet<String>> excludedDirectories;
+
+  public RecursivePkgFunction(AtomicReference<ImmutableSet<String>> excludedDirectories) {
+    this.excludedDirectories = excludedDirectories;
+  }
+
   @Override
   public SkyValue compute(SkyKey skyKey, Environment env) {
     RootedPath rootedPath = (RootedPath) skyKey.argument();
     Path root = rootedPath.getRoot();
     PathFragment rootRelativePath = rootedPath.getRelativePath();
+    ImmutableSet<String> excludes = excludedDirectories.get();
+
+    if (excludes.contains(rootRelativePath.getPathString())) {
+      return new RecursivePkgValue(NestedSetBuilder.<String>emptySet(ORDER));
+    }
 
     SkyKey fileKey = FileValue.key(rootedPath);
     FileValue fileValue = (FileValue) env.getValue(fileKey);
@@ -126,8 +142,12 @@ public class RecursivePkgFunction implements SkyFunction {
           && PathPackageLocator.DEFAULT_TOP_LEVEL_EXCLUDES.contains(basename)) {
         continue;
       }
-      SkyKey req = RecursivePkgValue.key(RootedPath.toRootedPath(root,
-          rootRelativePath.getRelative(basename)));
+      PathFragment subdirectory = rootRelativePath.getRelative(basename);
+      if (excludes.contains(subdirectory.getPathString())) {
+        // Skip the directory without creating any values for it.
+        continue;
+      }
+      SkyKey req = RecursivePkgValue.key(RootedPath.toRootedPath(root, subdirectory));
       childDeps.add(req);
     }
     Map<SkyKey, SkyValue> childValueMap = env.getValues(childDeps);
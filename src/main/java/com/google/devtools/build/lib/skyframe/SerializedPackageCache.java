@@ -0,0 +1,358 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.packages.RuleVisibility;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of serialized {@link com.google.devtools.build.lib.packages.Package}s, used by
+ * {@link PackageFunction} to avoid evaluating BUILD files again after a server restart.
+ *
+ * <p>Entries are keyed by a digest of everything that goes into the evaluation of a BUILD file
+ * apart from the file system: the Blaze binary, the BUILD file and its contents, the prelude and
+ * the default visibility. The file system state that the package depends on, i.e. the results of
+ * its globs and the package boundaries below it, is stored in the entry and must be verified by
+ * the caller before the package is used.
+ *
+ * <p>The total size of the entries is bounded: once enough new entries were written, the least
+ * recently used entries are deleted, see {@link #collectGarbage}.
+ */
+@ThreadSafe
+public final class SerializedPackageCache {
+
+  private static final Logger LOG = Logger.getLogger(SerializedPackageCache.class.getName());
+
+  private static final int MAGIC = 0x504b4743;
+
+  /**
+   * The version of the cache format. Must be incremented whenever the layout of an entry changes.
+   */
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * The default bound of the total size of the entries, in bytes.
+   */
+  public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+  /**
+   * Temporary files older than this are left behind by failed writes, and deleted by the garbage
+   * collection.
+   */
+  private static final long TEMPORARY_FILE_EXPIRY_MILLIS = 60 * 1000;
+
+  private static final String TEMPORARY_FILE_INFIX = ".tmp";
+
+  /**
+   * A cached package, together with the file system state it was loaded in.
+   */
+  static final class Entry {
+    private final ImmutableList<Pair<String, Boolean>> globPatterns;
+    private final String globDigest;
+    private final ImmutableList<PathFragment> subdirectories;
+    private final Build.Package packagePb;
+
+    Entry(Iterable<Pair<String, Boolean>> globPatterns, String globDigest,
+        Iterable<PathFragment> subdirectories, Build.Package packagePb) {
+      this.globPatterns = ImmutableList.copyOf(globPatterns);
+      this.globDigest = globDigest;
+      this.subdirectories = ImmutableList.copyOf(subdirectories);
+      this.packagePb = packagePb;
+    }
+
+    /**
+     * The glob patterns (and whether they exclude directories) evaluated by the package.
+     */
+    ImmutableList<Pair<String, Boolean>> getGlobPatterns() {
+      return globPatterns;
+    }
+
+    /**
+     * The digest of the results of the globs in {@link #getGlobPatterns}.
+     */
+    String getGlobDigest() {
+      return globDigest;
+    }
+
+    /**
+     * The directories below the package directory that contain targets of the package. None of
+     * them may belong to a subpackage.
+     */
+    ImmutableList<PathFragment> getSubdirectories() {
+      return subdirectories;
+    }
+
+    Build.Package getPackage() {
+      return packagePb;
+    }
+  }
+
+  private final Path directory;
+  private final String salt;
+  private final long maxSize;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesWrittenSinceGc = new AtomicLong();
+
+  /**
+   * Creates a cache in the given directory. The salt identifies the Blaze binary; packages
+   * written by a different binary are never reused, since its rule classes may differ.
+   *
+   * @param maxSize the total size of the entries, in bytes, that the garbage collection reduces
+   *     the cache to
+   */
+  public SerializedPackageCache(Path directory, String salt, long maxSize) {
+    this.directory = directory;
+    this.salt = salt;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the key of the package with the given BUILD file contents.
+   */
+  String key(PackageIdentifier packageId, Path buildFile, char[] content,
+      RuleVisibility defaultVisibility, List<Statement> preludeStatements) {
+    Fingerprint fp = new Fingerprint()
+        .addString(salt)
+        .addString(packageId.toString())
+        .addPath(buildFile)
+        .addString(new String(content));
+    for (Label label : defaultVisibility.getDeclaredLabels()) {
+      fp.addString(label.toString());
+    }
+    fp.addInt(preludeStatements.size());
+    for (Statement statement : preludeStatements) {
+      fp.addString(statement.toString());
+    }
+    return fp.hexDigestAndReset();
+  }
+
+  /**
+   * Returns the entry for the given key, or null if there is none.
+   */
+  @Nullable
+  Entry get(String key) {
+    Path file = getFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      Entry entry = read(file);
+      if (entry != null) {
+        // Marks the entry as recently used for the garbage collection.
+        file.setLastModifiedTime(-1L);
+      }
+      return entry;
+    } catch (IOException | RuntimeException e) {
+      // A corrupt entry is as good as a missing one; it is overwritten by the next put().
+      LOG.log(Level.FINE, "Cannot read package cache entry " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the entry for the given key. Failures are ignored, since they only make the cache
+   * less effective.
+   */
+  void put(String key, Entry entry) {
+    Path file = getFile(key);
+    // Write to a temporary file first, so that concurrent readers never see a partial entry.
+    Path tmp = file.getParentDirectory().getChild(
+        file.getBaseName() + TEMPORARY_FILE_INFIX + Thread.currentThread().getId());
+    try {
+      FileSystemUtils.createDirectoryAndParents(file.getParentDirectory());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(tmp.getOutputStream()))) {
+        write(out, entry);
+      }
+      tmp.renameTo(file);
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Cannot write package cache entry " + file, e);
+      try {
+        tmp.delete();
+      } catch (IOException e2) {
+        // Deleted by the next garbage collection.
+      }
+      return;
+    }
+    try {
+      if (bytesWrittenSinceGc.addAndGet(file.getFileSize()) > maxSize / 4) {
+        collectGarbage();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Cannot collect garbage in package cache " + directory, e);
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until the remaining ones take at most the maximum
+   * size, and deletes the temporary files left behind by failed writes.
+   */
+  @VisibleForTesting
+  synchronized void collectGarbage() throws IOException {
+    bytesWrittenSinceGc.set(0);
+    if (!directory.isDirectory()) {
+      return;
+    }
+    long temporaryFileExpiry = System.currentTimeMillis() - TEMPORARY_FILE_EXPIRY_MILLIS;
+    List<EntryFile> entries = new ArrayList<>();
+    long totalSize = 0;
+    for (Path subdirectory : directory.getDirectoryEntries()) {
+      if (!subdirectory.isDirectory()) {
+        continue;
+      }
+      for (Path file : subdirectory.getDirectoryEntries()) {
+        long lastModified = file.getLastModifiedTime();
+        if (file.getBaseName().contains(TEMPORARY_FILE_INFIX)) {
+          if (lastModified < temporaryFileExpiry) {
+            file.delete();
+          }
+          continue;
+        }
+        long size = file.getFileSize();
+        entries.add(new EntryFile(file, lastModified, size));
+        totalSize += size;
+      }
+    }
+    if (totalSize <= maxSize) {
+      return;
+    }
+    Collections.sort(entries, new Comparator<EntryFile>() {
+      @Override
+      public int compare(EntryFile o1, EntryFile o2) {
+        return Long.compare(o1.lastModified, o2.lastModified);
+      }
+    });
+    for (EntryFile entry : entries) {
+      if (totalSize <= maxSize) {
+        break;
+      }
+      entry.file.delete();
+      totalSize -= entry.size;
+    }
+  }
+
+  private static final class EntryFile {
+    private final Path file;
+    private final long lastModified;
+    private final long size;
+
+    EntryFile(Path file, long lastModified, long size) {
+      this.file = file;
+      this.lastModified = lastModified;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Records whether a package could be taken from the cache.
+   */
+  void recordLookup(boolean hit) {
+    (hit ? hits : misses).incrementAndGet();
+  }
+
+  /**
+   * Returns the number of packages that were taken from the cache.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of cacheable packages that had to be loaded from their BUILD file.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public String toString() {
+    return "SerializedPackageCache(" + directory + ", " + getHits() + " hits, " + getMisses()
+        + " misses)";
+  }
+
+  private Path getFile(String key) {
+    return directory.getChild(key.substring(0, 2)).getChild(key.substring(2));
+  }
+
+  @Nullable
+  private static Entry read(Path file) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(file.getInputStream()))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+      int globCount = in.readInt();
+      ImmutableList.Builder<Pair<String, Boolean>> globPatterns = ImmutableList.builder();
+      for (int i = 0; i < globCount; i++) {
+        String pattern = in.readUTF();
+        globPatterns.add(Pair.of(pattern, in.readBoolean()));
+      }
+      String globDigest = in.readUTF();
+      int subdirectoryCount = in.readInt();
+      ImmutableList.Builder<PathFragment> subdirectories = ImmutableList.builder();
+      for (int i = 0; i < subdirectoryCount; i++) {
+        subdirectories.add(new PathFragment(in.readUTF()));
+      }
+      byte[] packageBytes = new byte[in.readInt()];
+      in.readFully(packageBytes);
+      return new Entry(globPatterns.build(), globDigest, subdirectories.build(),
+          Build.Package.parseFrom(packageBytes));
+    }
+  }
+
+  private static void write(DataOutputStream out, Entry entry) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(entry.getGlobPatterns().size());
+    for (Pair<String, Boolean> globPattern : entry.getGlobPatterns()) {
+      out.writeUTF(globPattern.getFirst());
+      out.writeBoolean(globPattern.getSecond());
+    }
+    out.writeUTF(entry.getGlobDigest());
+    out.writeInt(entry.getSubdirectories().size());
+    for (PathFragment subdirectory : entry.getSubdirectories()) {
+      out.writeUTF(subdirectory.getPathString());
+    }
+    byte[] packageBytes = entry.getPackage().toByteArray();
+    out.writeInt(packageBytes.length);
+    out.write(packageBytes);
+  }
+}
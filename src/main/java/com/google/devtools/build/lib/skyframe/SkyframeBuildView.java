@@ -46,6 +46,7 @@ import com.google.devtools.build.lib.analysis.config.ConfigMatchingProvider;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.packages.Attribute;
+import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.skyframe.ActionLookupValue.ActionLookupKey;
 import com.google.devtools.build.lib.skyframe.BuildInfoCollectionValue.BuildInfoKeyAndConfig;
@@ -227,6 +228,10 @@ public final class SkyframeBuildView {
       Throwable cause = errorInfo.getException();
       Preconditions.checkState(cause != null || !Iterables.isEmpty(errorInfo.getCycleInfo()),
           errorInfo);
+      if (cause instanceof NoSuchThingException) {
+        // Not reported by the loading phase, since the package was loaded during the analysis.
+        skyframeExecutor.getReporter().handle(Event.error(cause.getMessage()));
+      }
       String errorMsg = "Analysis of target '" + ConfiguredTargetValue.extractLabel(topLevel)
           + "' failed; build aborted";
       throw new ViewCreationFailedException(errorMsg);
@@ -317,9 +322,10 @@ public final class SkyframeBuildView {
     Throwable cause = errorInfo.getException();
     if (cause != null) {
       // We should only be trying to configure targets when the loading phase succeeds, meaning
-      // that the only errors should be analysis errors.
-      Preconditions.checkState(cause instanceof ConfiguredValueCreationException,
-          "%s -> %s", key, errorInfo);
+      // that the only errors should be analysis errors. Missing targets are only found by the
+      // analysis when it loads the packages itself.
+      Preconditions.checkState(cause instanceof ConfiguredValueCreationException
+          || cause instanceof NoSuchThingException, "%s -> %s", key, errorInfo);
     }
   }
 
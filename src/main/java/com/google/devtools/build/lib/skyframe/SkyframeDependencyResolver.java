@@ -16,6 +16,8 @@ package com.google.devtools.build.lib.skyframe;
 import com.google.devtools.build.lib.analysis.DependencyResolver;
 import com.google.devtools.build.lib.analysis.TargetAndConfiguration;
 import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.packages.NoSuchPackageException;
+import com.google.devtools.build.lib.packages.NoSuchTargetException;
 import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.packages.TargetUtils;
@@ -54,7 +56,10 @@ public final class SkyframeDependencyResolver extends DependencyResolver {
   @Nullable
   @Override
   protected Target getTarget(Label label) throws NoSuchThingException {
-    if (env.getValue(TargetMarkerValue.key(label)) == null) {
+    // Only missing with --experimental_interleave_loading_and_analysis, since the loading phase
+    // checks that all targets exist otherwise.
+    if (env.getValueOrThrow(TargetMarkerValue.key(label), NoSuchTargetException.class,
+        NoSuchPackageException.class) == null) {
       return null;
     }
     SkyKey key = PackageValue.key(label.getPackageIdentifier());
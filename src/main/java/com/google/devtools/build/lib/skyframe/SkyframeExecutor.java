@@ -111,10 +111,13 @@ import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -123,7 +126,9 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -163,6 +168,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private final ConcurrentMap<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache =
       Maps.newConcurrentMap();
   private final AtomicInteger numPackagesLoaded = new AtomicInteger(0);
+  // Incremented whenever a value computed during the loading phase is invalidated.
+  private final AtomicLong loadingPhaseVersion = new AtomicLong(0);
 
   protected SkyframeBuildView skyframeBuildView;
   private EventHandler errorEventListener;
@@ -178,6 +185,13 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       new AtomicReference<>();
   protected final AtomicReference<ImmutableSet<String>> deletedPackages =
       new AtomicReference<>(ImmutableSet.<String>of());
+  private final AtomicReference<ImmutableSet<String>> recursivePackageExcludes =
+      new AtomicReference<>(ImmutableSet.<String>of());
+  // The on-disk cache of serialized packages, while enabled.
+  private final AtomicReference<SerializedPackageCache> serializedPackageCache =
+      new AtomicReference<>();
+  // Created the first time the cache is enabled, so that its statistics survive disabling it.
+  @Nullable private SerializedPackageCache serializedPackageCacheInstance;
   private final AtomicReference<EventBus> eventBus = new AtomicReference<>();
 
   private final ImmutableList<BuildInfoFactory> buildInfoFactories;
@@ -298,10 +312,10 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         pkgFactory.getRuleClassProvider(), pkgFactory));
     map.put(SkyFunctions.GLOB, new GlobFunction());
     map.put(SkyFunctions.TARGET_PATTERN, new TargetPatternFunction(pkgLocator));
-    map.put(SkyFunctions.RECURSIVE_PKG, new RecursivePkgFunction());
+    map.put(SkyFunctions.RECURSIVE_PKG, new RecursivePkgFunction(recursivePackageExcludes));
     map.put(SkyFunctions.PACKAGE, new PackageFunction(
         reporter, pkgFactory, packageManager, showLoadingProgress, packageFunctionCache,
-        eventBus, numPackagesLoaded));
+        eventBus, numPackagesLoaded, serializedPackageCache));
     map.put(SkyFunctions.TARGET_MARKER, new TargetMarkerFunction());
     map.put(SkyFunctions.TRANSITIVE_TARGET, new TransitiveTargetFunction());
     map.put(SkyFunctions.CONFIGURED_TARGET,
@@ -436,6 +450,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
    */
   public void resetEvaluator() {
     init();
+    loadingPhaseVersion.incrementAndGet();
     emittedEventState.clear();
     if (skyframeBuildView != null) {
       skyframeBuildView.clearLegacyData();
@@ -658,6 +673,48 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     return packageRoots.build();
   }
 
+  /**
+   * The map from package names to the package root for the packages in the transitive closure of
+   * the given configured targets, which must have been configured already. This is used to set up
+   * the symlink tree when the packages needed by the build were loaded on demand during analysis,
+   * so that the loading phase does not know them.
+   *
+   * <p>Only the configured targets and aspects reachable from the given ones are visited, so
+   * packages that are still in the graph from earlier builds are not included.
+   */
+  public ImmutableMap<PackageIdentifier, Path> getPackageRoots(
+      List<ConfiguredTargetKey> topLevelTargets) throws InterruptedException {
+    checkActive();
+    List<SkyKey> keys = ConfiguredTargetValue.keys(topLevelTargets);
+    // The keys are done, so this does not evaluate anything; it only gives access to the graph.
+    WalkableGraph graph = buildDriver.evaluate(keys, /*keepGoing=*/true, 1, errorEventListener)
+        .getWalkableGraph();
+    Map<PackageIdentifier, Path> packageRoots = new HashMap<>();
+    Set<SkyKey> visited = new HashSet<>();
+    Deque<SkyKey> toVisit = new ArrayDeque<>(keys);
+    while (!toVisit.isEmpty()) {
+      SkyKey key = toVisit.pop();
+      if (!visited.add(key) || !graph.exists(key)) {
+        continue;
+      }
+      for (SkyKey dep : graph.getDirectDeps(key)) {
+        SkyFunctionName functionName = dep.functionName();
+        if (functionName.equals(SkyFunctions.PACKAGE)) {
+          // Packages with errors have no value; their targets are not built.
+          PackageValue value = (PackageValue) graph.getValue(dep);
+          if (value != null) {
+            Package pkg = value.getPackage();
+            packageRoots.put(pkg.getPackageIdentifier(), pkg.getSourceRoot());
+          }
+        } else if (functionName.equals(SkyFunctions.CONFIGURED_TARGET)
+            || functionName.equals(SkyFunctions.ASPECT)) {
+          toVisit.push(dep);
+        }
+      }
+    }
+    return ImmutableMap.copyOf(packageRoots);
+  }
+
   @VisibleForTesting
   ImmutableList<Path> getPathEntries() {
     return pkgLocator.get().getPathEntries();
@@ -724,6 +781,48 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   @VisibleForTesting  // productionVisibility = Visibility.PRIVATE
   public abstract void setDeletedPackages(Iterable<String> pkgs);
 
+  /**
+   * Enables or disables the cache of serialized packages in the output base, which lets a new
+   * server reuse the packages loaded by an earlier one.
+   */
+  @VisibleForTesting
+  public void setSerializedPackageCacheEnabled(boolean enabled) {
+    if (enabled && serializedPackageCacheInstance == null) {
+      // The install base is specific to the Blaze binary.
+      serializedPackageCacheInstance = new SerializedPackageCache(
+          directories.getOutputBase().getChild("package_cache"),
+          directories.getInstallBase().getPathString(), SerializedPackageCache.DEFAULT_MAX_SIZE);
+      try {
+        // Removes what earlier servers left behind in excess of the bound.
+        serializedPackageCacheInstance.collectGarbage();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Cannot collect garbage in the package cache", e);
+      }
+    }
+    serializedPackageCache.set(enabled ? serializedPackageCacheInstance : null);
+  }
+
+  /**
+   * Returns the cache of serialized packages, or null if it was never enabled.
+   */
+  @Nullable
+  public SerializedPackageCache getSerializedPackageCache() {
+    return serializedPackageCacheInstance;
+  }
+
+  /**
+   * Sets the directories in which recursive target patterns do not look for packages.
+   */
+  private void setRecursivePackageExcludes(Iterable<String> directories) {
+    ImmutableSet<String> excludes = ImmutableSet.copyOf(directories);
+    if (!excludes.equals(recursivePackageExcludes.get())) {
+      recursivePackageExcludes.set(excludes);
+      // Any recursive package value may depend on the excludes. Their own dependencies stay
+      // valid, so re-evaluating them is cheap.
+      invalidate(SkyFunctionName.functionIs(SkyFunctions.RECURSIVE_PKG));
+    }
+  }
+
   /**
    * Prepares the evaluator for loading.
    *
@@ -1212,6 +1311,42 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         patterns);
   }
 
+  /**
+   * For internal use in queries: evaluates the given keys, which are typically target pattern,
+   * package or transitive target keys, and returns a traversable view of the graph. Like
+   * {@link #prepareAndGet}, this is unconditionally done in keep-going mode.
+   */
+  @Override
+  public WalkableGraph evaluateAndGet(Iterable<SkyKey> roots, int numThreads,
+      EventHandler eventHandler) throws InterruptedException {
+    return Preconditions.checkNotNull(
+        buildDriver.evaluate(roots, true, numThreads, eventHandler).getWalkableGraph());
+  }
+
+  /**
+   * Returns a number that changes whenever a package, a target pattern or the transitive closure
+   * of a target may have changed since the last call, e.g. because a BUILD file was modified.
+   * Results computed from the loaded packages, such as those of queries, remain valid as long as
+   * the number stays the same.
+   *
+   * <p>Pending invalidations, such as those of {@link #setupPackageCache}, are processed first.
+   */
+  public long getLoadingPhaseVersion(EventHandler eventHandler) throws InterruptedException {
+    buildDriver.evaluate(ImmutableList.<SkyKey>of(), false, 1, eventHandler);
+    return loadingPhaseVersion.get();
+  }
+
+  private static boolean isLoadingPhaseValue(SkyValue value) {
+    return value instanceof PackageValue
+        || value instanceof PackageLookupValue
+        || value instanceof ContainingPackageLookupValue
+        || value instanceof GlobValue
+        || value instanceof TargetPatternValue
+        || value instanceof RecursivePkgValue
+        || value instanceof TargetMarkerValue
+        || value instanceof TransitiveTargetValue;
+  }
+
   /**
    * Returns the generating {@link Action} of the given {@link Artifact}.
    *
@@ -1380,6 +1515,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         packageCacheOptions.defaultVisibility, packageCacheOptions.showLoadingProgress,
         defaultsPackageContents, commandId);
     setDeletedPackages(ImmutableSet.copyOf(packageCacheOptions.deletedPackages));
+    setRecursivePackageExcludes(packageCacheOptions.recursivePackageExcludes);
+    setSerializedPackageCacheEnabled(packageCacheOptions.serializedPackageCache);
 
     incrementalBuildMonitor = new SkyframeIncrementalBuildMonitor();
     invalidateTransientErrors();
@@ -1495,6 +1632,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
     @Override
     public void invalidated(SkyValue value, InvalidationState state) {
+      if (isLoadingPhaseValue(value)) {
+        loadingPhaseVersion.incrementAndGet();
+      }
       if (ignoreInvalidations) {
         return;
       }
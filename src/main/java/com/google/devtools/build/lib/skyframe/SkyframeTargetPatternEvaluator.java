@@ -32,6 +32,7 @@ import com.google.devtools.build.skyframe.EvaluationResult;
 import com.google.devtools.build.skyframe.SkyKey;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -76,11 +77,30 @@ final class SkyframeTargetPatternEvaluator implements TargetPatternEvaluator {
           throws TargetParsingException, InterruptedException {
     // TODO(bazel-team): This is used only in "blaze query". There are plans to dramatically change
     // how query works on Skyframe, in which case this method is likely to go away.
+    Map<String, SkyKey> patternSkyKeys = new LinkedHashMap<>();
+    for (String pattern : patterns) {
+      patternSkyKeys.put(pattern,
+          TargetPatternValue.key(pattern, DEFAULT_FILTERING_POLICY, offset));
+    }
+    // Evaluate all patterns at once, so that Skyframe resolves them in parallel. This is done in
+    // keep-going mode even for --nokeep_going, since Skyframe would otherwise stop at whichever
+    // pattern fails first; the caller expects the error of the left-most failing pattern.
+    EvaluationResult<TargetPatternValue> evaluationResult = skyframeExecutor.targetPatterns(
+        patternSkyKeys.values(), SkyframeExecutor.DEFAULT_THREAD_COUNT, true, eventHandler);
+    if (!keepGoing && evaluationResult.hasError()) {
+      for (SkyKey key : patternSkyKeys.values()) {
+        if (evaluationResult.errorMap().containsKey(key)) {
+          // Throws the exception for this pattern.
+          processEvaluationResult(ImmutableList.of(key), evaluationResult, false, eventHandler);
+        }
+      }
+    }
+
     // We cannot use an ImmutableMap here because there may be null values.
     Map<String, ResolvedTargets<Target>> result = Maps.newHashMapWithExpectedSize(patterns.size());
-    for (String pattern : patterns) {
-      // TODO(bazel-team): This could be parallelized to improve performance. [skyframe-loading]
-      result.put(pattern, parseTargetPattern(eventHandler, pattern, keepGoing));
+    for (Map.Entry<String, SkyKey> entry : patternSkyKeys.entrySet()) {
+      result.put(entry.getKey(), processEvaluationResult(ImmutableList.of(entry.getValue()),
+          evaluationResult, keepGoing, eventHandler));
     }
     return result;
   }
@@ -100,7 +120,16 @@ final class SkyframeTargetPatternEvaluator implements TargetPatternEvaluator {
       throws InterruptedException, TargetParsingException {
     EvaluationResult<TargetPatternValue> result =
         skyframeExecutor.targetPatterns(patternSkyKeys, numThreads, keepGoing, eventHandler);
+    return processEvaluationResult(patternSkyKeys, result, keepGoing, eventHandler);
+  }
 
+  /**
+   * Combines the targets of the given patterns, which must all have been evaluated in {@code
+   * result}, and reports the patterns that failed.
+   */
+  private ResolvedTargets<Target> processEvaluationResult(Iterable<SkyKey> patternSkyKeys,
+      EvaluationResult<TargetPatternValue> result, boolean keepGoing, EventHandler eventHandler)
+      throws TargetParsingException {
     String errorMessage = null;
     ResolvedTargets.Builder<Target> builder = ResolvedTargets.builder();
     for (SkyKey key : patternSkyKeys) {
@@ -121,23 +150,28 @@ final class SkyframeTargetPatternEvaluator implements TargetPatternEvaluator {
           Preconditions.checkState(!keepGoing);
           continue;
         }
+        String message;
         if (error.getException() != null) {
-          errorMessage = error.getException().getMessage();
+          message = error.getException().getMessage();
         } else if (!Iterables.isEmpty(error.getCycleInfo())) {
-          errorMessage = "cycles detected during target parsing";
+          message = "cycles detected during target parsing";
           skyframeExecutor.getCyclesReporter().reportCycles(
               error.getCycleInfo(), key, eventHandler);
         } else {
           throw new IllegalStateException(error.toString());
         }
+        // Without --keep_going, the error of the first failed pattern is thrown.
+        if (errorMessage == null) {
+          errorMessage = message;
+        }
         if (keepGoing) {
-          eventHandler.handle(Event.error("Skipping '" + rawPattern + "': " + errorMessage));
+          eventHandler.handle(Event.error("Skipping '" + rawPattern + "': " + message));
         }
         builder.setError();
 
         if (eventHandler instanceof ParseFailureListener) {
           ParseFailureListener parseListener = (ParseFailureListener) eventHandler;
-          parseListener.parsingError(rawPattern,  errorMessage);
+          parseListener.parsingError(rawPattern,  message);
         }
       }
     }
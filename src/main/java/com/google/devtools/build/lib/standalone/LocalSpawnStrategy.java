@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.standalone;
 
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
@@ -22,6 +23,7 @@ import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.TerminationStatus;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
 import com.google.devtools.build.lib.util.OS;
@@ -30,9 +32,12 @@ import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 /**
  * Strategy that uses subprocessing to execute a process.
  */
@@ -42,10 +47,22 @@ public class LocalSpawnStrategy implements SpawnActionContext {
 
   private final Path processWrapper;
 
+  @Nullable private final SpawnHelper spawnHelper;
+
   public LocalSpawnStrategy(Path execRoot, boolean verboseFailures) {
+    this(execRoot, verboseFailures, null);
+  }
+
+  /**
+   * Creates a strategy that starts processes through the given {@link SpawnHelper}, if it is not
+   * null, instead of forking them from the server.
+   */
+  public LocalSpawnStrategy(Path execRoot, boolean verboseFailures,
+      @Nullable SpawnHelper spawnHelper) {
     this.verboseFailures = verboseFailures;
     this.processWrapper = execRoot.getRelative(
         "_bin/process-wrapper" + OsUtils.executableExtension());
+    this.spawnHelper = spawnHelper;
   }
 
   /**
@@ -61,6 +78,13 @@ public class LocalSpawnStrategy implements SpawnActionContext {
           spawn.asShellCommand(executor.getExecRoot()));
     }
 
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    if (spawnHelper != null && outErr.getOutputFile() != null
+        && outErr.getErrorFile() != null) {
+      execWithSpawnHelper(spawn, executor.getExecRoot(), outErr);
+      return;
+    }
+
     // We must wrap the subprocess with process-wrapper to kill the process tree.
     // All actions therefore depend on the process-wrapper file. Since it's embedded,
     // we don't bother with declaring it as an input.
@@ -84,7 +108,6 @@ public class LocalSpawnStrategy implements SpawnActionContext {
     String cwd = executor.getExecRoot().getPathString();
     Command cmd = new Command(args.toArray(new String[]{}), spawn.getEnvironment(), new File(cwd));
 
-    FileOutErr outErr = actionExecutionContext.getFileOutErr();
     try {
       cmd.execute(
           /* stdin */ new byte[]{},
@@ -99,6 +122,36 @@ public class LocalSpawnStrategy implements SpawnActionContext {
     }
   }
 
+  /**
+   * Executes the given {@code spawn} through the spawn helper. The helper runs every process in
+   * its own session and kills the process tree when it exits, so process-wrapper is not needed,
+   * and the output goes directly to the files of {@code outErr}.
+   */
+  private void execWithSpawnHelper(Spawn spawn, Path execRoot, FileOutErr outErr)
+      throws ExecException {
+    String cwd = execRoot.getPathString();
+    SpawnHelper.Result result;
+    try {
+      // The helper appends to the same files as outErr. Create them now, since outErr truncates
+      // its files when it first writes to them, and flush anything already written.
+      outErr.openFiles();
+      outErr.getOutputStream().flush();
+      outErr.getErrorStream().flush();
+      result = spawnHelper.run(spawn.getArguments(), spawn.getEnvironment(), execRoot,
+          outErr.getOutputFile(), outErr.getErrorFile());
+    } catch (IOException e) {
+      String message = CommandFailureUtils.describeCommandFailure(
+          verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
+      throw new EnvironmentalExecException(String.format("%s: %s", message, e.getMessage()), e);
+    }
+    TerminationStatus status = result.getStatus();
+    if (!status.success()) {
+      String message = CommandFailureUtils.describeCommandFailure(
+          verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
+      throw new UserExecException(String.format("%s: %s", message, status));
+    }
+  }
+
   @Override
   public String strategyLocality(String mnemonic, boolean remotable) {
     return "standalone";
@@ -0,0 +1,253 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client for the embedded {@code spawn-helper} binary.
+ *
+ * <p>The helper is started once and then forks all subprocesses on behalf of the server, which
+ * avoids forking the (potentially very large) Blaze JVM for every spawn. Requests are multiplexed
+ * over the helper's stdin, so any number of threads may run processes through a single helper
+ * concurrently. The output of the subprocesses is written directly to files by the helper and
+ * never passes through the Java heap.
+ */
+@ThreadSafe
+public final class SpawnHelper {
+
+  private static final Logger LOG = Logger.getLogger(SpawnHelper.class.getName());
+
+  /**
+   * The result of a process run by the helper.
+   */
+  public static final class Result {
+    private final TerminationStatus status;
+    private final long userTimeMicros;
+    private final long systemTimeMicros;
+    private final long maxResidentSetKb;
+
+    private Result(TerminationStatus status, long userTimeMicros, long systemTimeMicros,
+        long maxResidentSetKb) {
+      this.status = status;
+      this.userTimeMicros = userTimeMicros;
+      this.systemTimeMicros = systemTimeMicros;
+      this.maxResidentSetKb = maxResidentSetKb;
+    }
+
+    public TerminationStatus getStatus() {
+      return status;
+    }
+
+    /** Returns the user CPU time used by the process and its reaped descendants. */
+    public long getUserTimeMicros() {
+      return userTimeMicros;
+    }
+
+    /** Returns the system CPU time used by the process and its reaped descendants. */
+    public long getSystemTimeMicros() {
+      return systemTimeMicros;
+    }
+
+    /** Returns the maximum resident set size of the process, in kilobytes. */
+    public long getMaxResidentSetKb() {
+      return maxResidentSetKb;
+    }
+  }
+
+  private final Process process;
+  private final OutputStream requests;
+  private final Map<String, SettableFuture<Result>> pending = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong();
+  private volatile IOException failure = null;
+
+  private SpawnHelper(Process process) {
+    this.process = process;
+    this.requests = new BufferedOutputStream(process.getOutputStream());
+  }
+
+  /**
+   * Starts the helper binary at the given path.
+   */
+  public static SpawnHelper start(Path binary) throws IOException {
+    ProcessBuilder builder = new ProcessBuilder(binary.getPathString());
+    builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+    final SpawnHelper helper = new SpawnHelper(builder.start());
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        helper.readResponses();
+      }
+    }, "spawn-helper-reader");
+    reader.setDaemon(true);
+    reader.start();
+    return helper;
+  }
+
+  /**
+   * Returns true if the helper process can still accept requests.
+   */
+  public boolean isAlive() {
+    return failure == null && process.isAlive();
+  }
+
+  /**
+   * Runs a process through the helper and waits for it to terminate.
+   *
+   * <p>If the calling thread is interrupted, the process and all of its descendants are killed.
+   * The method then still waits for the process to be reaped and returns its status, with the
+   * interrupted status of the thread restored.
+   *
+   * @param args the command line; the executable is looked up in the {@code PATH} of {@code env}
+   * @param env the complete environment of the process
+   * @param workingDirectory the working directory of the process
+   * @param stdout the file the standard output of the process is appended to
+   * @param stderr the file the standard error of the process is appended to
+   * @throws IOException if the process could not be started or the helper died
+   */
+  public Result run(List<String> args, Map<String, String> env, Path workingDirectory,
+      Path stdout, Path stderr) throws IOException {
+    Preconditions.checkArgument(!args.isEmpty());
+    String id = Long.toString(nextId.incrementAndGet());
+    SettableFuture<Result> future = SettableFuture.create();
+    pending.put(id, future);
+    boolean interrupted = false;
+    try {
+      synchronized (requests) {
+        checkAlive();
+        writeString("S");
+        writeString(id);
+        writeString(workingDirectory.getPathString());
+        writeString(stdout.getPathString());
+        writeString(stderr.getPathString());
+        writeString(Integer.toString(args.size()));
+        for (String arg : args) {
+          writeString(arg);
+        }
+        writeString(Integer.toString(env.size()));
+        for (Map.Entry<String, String> entry : env.entrySet()) {
+          writeString(entry.getKey() + "=" + entry.getValue());
+        }
+        requests.flush();
+      }
+
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          if (!interrupted) {
+            interrupted = true;
+            kill(id);
+          }
+        }
+      }
+    } catch (ExecutionException e) {
+      throw (IOException) e.getCause();
+    } finally {
+      pending.remove(id);
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stops the helper. All processes still running are killed.
+   */
+  public void shutdown() {
+    try {
+      synchronized (requests) {
+        requests.close();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to shut down spawn-helper", e);
+      process.destroy();
+    }
+  }
+
+  private void kill(String id) {
+    try {
+      synchronized (requests) {
+        checkAlive();
+        writeString("K");
+        writeString(id);
+        requests.flush();
+      }
+    } catch (IOException e) {
+      // The process dies together with the helper anyway.
+      LOG.log(Level.WARNING, "Failed to kill process " + id, e);
+    }
+  }
+
+  private void checkAlive() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void writeString(String s) throws IOException {
+    requests.write(s.getBytes(StandardCharsets.ISO_8859_1));
+    requests.write(0);
+  }
+
+  private void readResponses() {
+    try (BufferedReader in = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.ISO_8859_1))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split(" ");
+        SettableFuture<Result> future = pending.get(fields[0]);
+        if (future == null) {
+          LOG.warning("Unexpected response from spawn-helper: " + line);
+          continue;
+        }
+        if (fields[1].equals("x")) {
+          future.setException(new IOException(
+              "Failed to start process (errno " + fields[2] + ")"));
+        } else {
+          future.set(new Result(new TerminationStatus(Integer.parseInt(fields[2])),
+              Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5])));
+        }
+      }
+      fail(new IOException("spawn-helper terminated unexpectedly"));
+    } catch (IOException | RuntimeException e) {
+      fail(new IOException("Error reading from spawn-helper", e));
+    }
+  }
+
+  private void fail(IOException e) {
+    failure = e;
+    for (SettableFuture<Result> future : pending.values()) {
+      future.setException(e);
+    }
+  }
+}
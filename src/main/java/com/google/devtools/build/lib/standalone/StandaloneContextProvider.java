@@ -40,6 +40,8 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 /**
  * Provide a standalone, local execution context.
  */
@@ -69,11 +71,12 @@ public class StandaloneContextProvider implements ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
   private final BlazeRuntime runtime;
 
-  public StandaloneContextProvider(BlazeRuntime runtime, BuildRequest buildRequest) {
+  public StandaloneContextProvider(BlazeRuntime runtime, BuildRequest buildRequest,
+      @Nullable SpawnHelper spawnHelper) {
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
 
     localSpawnStrategy = new LocalSpawnStrategy(
-        runtime.getDirectories().getExecRoot(), verboseFailures);
+        runtime.getDirectories().getExecRoot(), verboseFailures, spawnHelper);
     this.runtime = runtime;
 
     TestActionContext testStrategy = new StandaloneTestStrategy(buildRequest,
@@ -18,9 +18,15 @@ import com.google.devtools.build.lib.actions.ActionContextConsumer;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.util.OsUtils;
+
+import java.io.IOException;
 
 /**
  * StandaloneModule provides pluggable functionality for blaze.
@@ -30,12 +36,34 @@ public class StandaloneModule extends BlazeModule {
   private BuildRequest buildRequest;
   private BlazeRuntime runtime;
 
+  // Started on first use and kept for the lifetime of the server.
+  private SpawnHelper spawnHelper;
+
   /**
    * Returns the action context provider the module contributes to Blaze, if any.
    */
   @Override
   public ActionContextProvider getActionContextProvider() {
-    return new StandaloneContextProvider(runtime, buildRequest);
+    return new StandaloneContextProvider(runtime, buildRequest, getSpawnHelper());
+  }
+
+  private SpawnHelper getSpawnHelper() {
+    if (OS.getCurrent() == OS.WINDOWS
+        || !buildRequest.getOptions(ExecutionOptions.class).useLocalSpawnHelper) {
+      return null;
+    }
+    if (spawnHelper == null || !spawnHelper.isAlive()) {
+      try {
+        spawnHelper = SpawnHelper.start(runtime.getDirectories().getEmbeddedBinariesRoot()
+            .getRelative("spawn-helper" + OsUtils.executableExtension()));
+      } catch (IOException e) {
+        runtime.getReporter().handle(Event.warn(
+            "Could not start spawn-helper, forking processes from the server instead: "
+            + e.getMessage()));
+        spawnHelper = null;
+      }
+    }
+    return spawnHelper;
   }
 
   /**
@@ -52,6 +80,14 @@ public class StandaloneModule extends BlazeModule {
     runtime.getEventBus().register(this);
   }
 
+  @Override
+  public void blazeShutdown() {
+    if (spawnHelper != null) {
+      spawnHelper.shutdown();
+      spawnHelper = null;
+    }
+  }
+
   @Subscribe
   public void buildStarting(BuildStartingEvent event) {
     buildRequest = event.getRequest();
@@ -0,0 +1,163 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.Location;
+
+import java.util.List;
+
+/**
+ * The body of a {@link UserDefinedFunction}, compiled into a tree of closures.
+ *
+ * <p>When the statements of a function are executed directly, a {@code return} statement throws
+ * a {@link ReturnStatement.ReturnException} that unwinds to the function call, and every call of a
+ * function pays for creating that exception. The closures of a compiled block instead report an
+ * executed {@code return} through their result, so that the control flow of a function body
+ * never involves exceptions. The conditions and blocks of {@code if} and {@code for} statements
+ * are resolved into arrays once, when the function is defined.
+ *
+ * <p>Statements that cannot contain a {@code return} are not compiled further; their closure just
+ * executes the syntax node.
+ */
+final class CompiledBlock {
+
+  /**
+   * The result of a closure that completed without executing a {@code return} statement.
+   */
+  private static final Object NO_RETURN = new Object();
+
+  private abstract static class Closure {
+    /**
+     * Executes the closure and returns the value of the executed {@code return} statement, or
+     * {@link #NO_RETURN} if there was none.
+     */
+    abstract Object exec(Environment env) throws EvalException, InterruptedException;
+  }
+
+  private final Closure[] closures;
+
+  private CompiledBlock(Closure[] closures) {
+    this.closures = closures;
+  }
+
+  /**
+   * Compiles the statements of a function body.
+   */
+  static CompiledBlock compile(List<Statement> statements) {
+    return new CompiledBlock(compileAll(statements));
+  }
+
+  /**
+   * Executes the function body and returns its result, which is {@link Environment#NONE} if the
+   * body completes without a {@code return} statement.
+   */
+  Object exec(Environment env) throws EvalException, InterruptedException {
+    Object result = execAll(closures, env);
+    return result == NO_RETURN ? Environment.NONE : result;
+  }
+
+  private static Object execAll(Closure[] closures, Environment env)
+      throws EvalException, InterruptedException {
+    for (Closure closure : closures) {
+      Object result = closure.exec(env);
+      if (result != NO_RETURN) {
+        return result;
+      }
+    }
+    return NO_RETURN;
+  }
+
+  private static Closure[] compileAll(List<? extends Statement> statements) {
+    Closure[] result = new Closure[statements.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = compile(statements.get(i));
+    }
+    return result;
+  }
+
+  private static Closure compile(final Statement statement) {
+    if (statement instanceof ReturnStatement) {
+      final Expression expression = ((ReturnStatement) statement).getReturnExpression();
+      return new Closure() {
+        @Override
+        Object exec(Environment env) throws EvalException, InterruptedException {
+          return expression.eval(env);
+        }
+      };
+    } else if (statement instanceof IfStatement) {
+      return compileIf((IfStatement) statement);
+    } else if (statement instanceof ForStatement) {
+      return compileFor((ForStatement) statement);
+    } else {
+      return new Closure() {
+        @Override
+        Object exec(Environment env) throws EvalException, InterruptedException {
+          statement.exec(env);
+          return NO_RETURN;
+        }
+      };
+    }
+  }
+
+  private static Closure compileIf(IfStatement statement) {
+    ImmutableList<IfStatement.ConditionalStatements> thenBlocks = statement.getThenBlocks();
+    final Expression[] conditions = new Expression[thenBlocks.size()];
+    final Closure[][] blocks = new Closure[thenBlocks.size()][];
+    for (int i = 0; i < conditions.length; i++) {
+      conditions[i] = thenBlocks.get(i).getCondition();
+      blocks[i] = compileAll(thenBlocks.get(i).getStmts());
+    }
+    final Closure[] elseBlock = compileAll(statement.getElseBlock());
+    return new Closure() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        for (int i = 0; i < conditions.length; i++) {
+          if (EvalUtils.toBoolean(conditions[i].eval(env))) {
+            return execAll(blocks[i], env);
+          }
+        }
+        return execAll(elseBlock, env);
+      }
+    };
+  }
+
+  private static Closure compileFor(ForStatement statement) {
+    final LValue variable = statement.getVariable();
+    final Expression collection = statement.getCollection();
+    final Location location = statement.getLocation();
+    final Closure[] block = compileAll(statement.block());
+    return new Closure() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        Iterable<?> col = EvalUtils.toIterable(collection.eval(env), location);
+        int i = 0;
+        for (Object it : ImmutableList.copyOf(col)) {
+          variable.assign(env, location, it);
+          Object result = execAll(block, env);
+          if (result != NO_RETURN) {
+            return result;
+          }
+          i++;
+        }
+        // See ForStatement#exec.
+        if (i != EvalUtils.size(col)) {
+          throw new EvalException(location, String.format(
+              "Cannot modify '%s' during during iteration.", collection.toString()));
+        }
+        return NO_RETURN;
+      }
+    };
+  }
+}
@@ -20,7 +20,6 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.EvalException.EvalExceptionWithJavaCause;
 import com.google.devtools.build.lib.util.StringUtilities;
@@ -49,14 +48,26 @@ public final class FuncallExpression extends Expression {
   /**
    * A value class to store Methods with their corresponding SkylarkCallable annotations.
    * This is needed because the annotation is sometimes in a superclass.
+   *
+   * <p>The reflective properties of the method that are needed for every call are computed once,
+   * when the descriptor is created.
    */
   public static final class MethodDescriptor {
     private final Method method;
     private final SkylarkCallable annotation;
+    private final Class<?>[] parameterTypes;
+    private final boolean isStatic;
+    private final boolean returnsVoid;
 
     private MethodDescriptor(Method method, SkylarkCallable annotation) {
       this.method = method;
       this.annotation = annotation;
+      this.parameterTypes = method.getParameterTypes();
+      this.isStatic = Modifier.isStatic(method.getModifiers());
+      this.returnsVoid = method.getReturnType().equals(Void.TYPE);
+      // This is needed when the interface is public but the implementation classes have reduced
+      // visibility.
+      method.setAccessible(true);
     }
 
     Method getMethod() {
@@ -69,17 +80,33 @@ public final class FuncallExpression extends Expression {
     public SkylarkCallable getAnnotation() {
       return annotation;
     }
+
+    /**
+     * Returns true if the method accepts arguments of the given classes.
+     */
+    boolean matches(List<Object> args) {
+      for (int i = 0; i < parameterTypes.length; i++) {
+        if (!parameterTypes[i].isAssignableFrom(args.get(i).getClass())) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 
+  /**
+   * The Skylark callable methods of every class, keyed by name and number of parameters. The set
+   * of methods of a class never changes, so entries are never evicted; the number of classes
+   * visible to Skylark is small.
+   */
   private static final LoadingCache<Class<?>, Map<String, List<MethodDescriptor>>> methodCache =
       CacheBuilder.newBuilder()
-      .initialCapacity(10)
-      .maximumSize(100)
+      .initialCapacity(100)
       .build(new CacheLoader<Class<?>, Map<String, List<MethodDescriptor>>>() {
 
         @Override
         public Map<String, List<MethodDescriptor>> load(Class<?> key) throws Exception {
-          Map<String, List<MethodDescriptor>> methodMap = new HashMap<>();
+          Map<String, ImmutableList.Builder<MethodDescriptor>> methodMap = new HashMap<>();
           for (Method method : key.getMethods()) {
             // Synthetic methods lead to false multiple matches
             if (method.isSynthetic()) {
@@ -95,13 +122,17 @@ public final class FuncallExpression extends Expression {
               name = StringUtilities.toPythonStyleFunctionName(method.getName());
             }
             String signature = name + "#" + method.getParameterTypes().length;
-            if (methodMap.containsKey(signature)) {
-              methodMap.get(signature).add(new MethodDescriptor(method, callable));
-            } else {
-              methodMap.put(signature, Lists.newArrayList(new MethodDescriptor(method, callable)));
+            if (!methodMap.containsKey(signature)) {
+              methodMap.put(signature, ImmutableList.<MethodDescriptor>builder());
             }
+            methodMap.get(signature).add(new MethodDescriptor(method, callable));
           }
-          return ImmutableMap.copyOf(methodMap);
+          ImmutableMap.Builder<String, List<MethodDescriptor>> result = ImmutableMap.builder();
+          for (Map.Entry<String, ImmutableList.Builder<MethodDescriptor>> entry
+              : methodMap.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().build());
+          }
+          return result.build();
         }
       });
 
@@ -156,6 +187,37 @@ public final class FuncallExpression extends Expression {
     return null;
   }
 
+  /**
+   * A method resolved for a call site, with the classes of the object and the arguments it was
+   * resolved for. Overload resolution only depends on these classes.
+   */
+  private static final class ResolvedMethod {
+    private final Class<?> objClass;
+    private final Class<?>[] argClasses;
+    private final MethodDescriptor method;
+
+    private ResolvedMethod(Class<?> objClass, List<Object> args, MethodDescriptor method) {
+      this.objClass = objClass;
+      this.argClasses = new Class<?>[args.size()];
+      for (int i = 0; i < argClasses.length; i++) {
+        argClasses[i] = args.get(i).getClass();
+      }
+      this.method = method;
+    }
+
+    private boolean isFor(Class<?> objClass, List<Object> args) {
+      if (objClass != this.objClass || args.size() != argClasses.length) {
+        return false;
+      }
+      for (int i = 0; i < argClasses.length; i++) {
+        if (args.get(i).getClass() != argClasses[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
   /**
    * An exception class to handle exceptions in direct Java API calls.
    */
@@ -174,6 +236,12 @@ public final class FuncallExpression extends Expression {
 
   private final int numPositionalArgs;
 
+  /**
+   * The Java method that this call site resolved to last. Most call sites always call methods on
+   * objects of the same classes, so this saves the method lookup and overload resolution.
+   */
+  private transient volatile ResolvedMethod lastResolvedMethod;
+
   /**
    * Note: the grammar definition restricts the function value in a function
    * call expression to be a global identifier; however, the representation of
@@ -291,14 +359,11 @@ public final class FuncallExpression extends Expression {
       Object[] args, Location loc) throws EvalException, IllegalAccessException,
       IllegalArgumentException, InvocationTargetException {
     Method method = methodDescriptor.getMethod();
-    if (obj == null && !Modifier.isStatic(method.getModifiers())) {
+    if (obj == null && !methodDescriptor.isStatic) {
       throw new EvalException(loc, "Method '" + methodName + "' is not static");
     }
-    // This happens when the interface is public but the implementation classes
-    // have reduced visibility.
-    method.setAccessible(true);
     Object result = method.invoke(obj, args);
-    if (method.getReturnType().equals(Void.TYPE)) {
+    if (methodDescriptor.returnsVoid) {
       return Environment.NONE;
     }
     if (result == null) {
@@ -325,21 +390,15 @@ public final class FuncallExpression extends Expression {
   private Object invokeJavaMethod(
       Object obj, Class<?> objClass, String methodName, List<Object> args) throws EvalException {
     try {
+      ResolvedMethod resolved = lastResolvedMethod;
+      if (resolved != null && resolved.isFor(objClass, args)) {
+        return callMethod(resolved.method, methodName, obj, args.toArray(), getLocation());
+      }
       MethodDescriptor matchingMethod = null;
       List<MethodDescriptor> methods = getMethods(objClass, methodName, args.size());
       if (methods != null) {
         for (MethodDescriptor method : methods) {
-          Class<?>[] params = method.getMethod().getParameterTypes();
-          int i = 0;
-          boolean matching = true;
-          for (Class<?> param : params) {
-            if (!param.isAssignableFrom(args.get(i).getClass())) {
-              matching = false;
-              break;
-            }
-            i++;
-          }
-          if (matching) {
+          if (method.matches(args)) {
             if (matchingMethod == null) {
               matchingMethod = method;
             } else {
@@ -351,6 +410,7 @@ public final class FuncallExpression extends Expression {
         }
       }
       if (matchingMethod != null && !matchingMethod.getAnnotation().structField()) {
+        lastResolvedMethod = new ResolvedMethod(objClass, args, matchingMethod);
         return callMethod(matchingMethod, methodName, obj, args.toArray(), getLocation());
       } else {
         throw new EvalException(getLocation(), "No matching method found for "
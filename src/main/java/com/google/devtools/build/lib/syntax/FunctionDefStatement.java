@@ -14,10 +14,12 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.syntax.SkylarkType.SkylarkFunctionType;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -29,6 +31,8 @@ public class FunctionDefStatement extends Statement {
   private final Ident ident;
   private final FunctionSignature.WithValues<Expression, Expression> args;
   private final ImmutableList<Statement> statements;
+  private final ImmutableMap<String, Integer> slotIndex;
+  private final CompiledBlock body;
 
   public FunctionDefStatement(Ident ident,
       FunctionSignature.WithValues<Expression, Expression> args,
@@ -36,6 +40,103 @@ public class FunctionDefStatement extends Statement {
     this.ident = ident;
     this.args = args;
     this.statements = ImmutableList.copyOf(statements);
+    this.slotIndex = LocalVariableResolver.resolve(args.getSignature().getNames(), this.statements);
+    this.body = CompiledBlock.compile(this.statements);
+  }
+
+  /**
+   * Assigns a slot to every local variable of a function, i.e. to its parameters and to every
+   * name that is bound anywhere in its body, and records the slots in the identifiers of the body.
+   * This lets variable accesses in the function use an array instead of a map.
+   *
+   * <p>Identifiers that refer to names that are never bound in the function get the slot
+   * {@link Ident#GLOBAL}.
+   */
+  private static final class LocalVariableResolver extends SyntaxTreeVisitor {
+    private final Map<String, Integer> slots = new LinkedHashMap<>();
+    private final List<Ident> idents = new ArrayList<>();
+
+    static ImmutableMap<String, Integer> resolve(List<String> parameters,
+        List<Statement> statements) {
+      LocalVariableResolver resolver = new LocalVariableResolver();
+      for (String parameter : parameters) {
+        resolver.bind(parameter);
+      }
+      resolver.visitAll(statements);
+      for (Ident ident : resolver.idents) {
+        Integer slot = resolver.slots.get(ident.getName());
+        ident.setSlot(slot != null ? slot : Ident.GLOBAL);
+      }
+      return ImmutableMap.copyOf(resolver.slots);
+    }
+
+    private void bind(String name) {
+      if (!slots.containsKey(name)) {
+        slots.put(name, slots.size());
+      }
+    }
+
+    private void bind(LValue lvalue) {
+      bind(lvalue.getExpression());
+    }
+
+    private void bind(Expression lvalue) {
+      if (lvalue instanceof Ident) {
+        bind(((Ident) lvalue).getName());
+      } else if (lvalue instanceof ListLiteral) {
+        for (Expression element : ((ListLiteral) lvalue).getElements()) {
+          bind(element);
+        }
+      }
+    }
+
+    @Override
+    public void visit(Ident node) {
+      idents.add(node);
+    }
+
+    @Override
+    public void visit(AssignmentStatement node) {
+      bind(node.getLValue());
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ForStatement node) {
+      bind(node.getVariable());
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(ListComprehension node) {
+      for (Map.Entry<LValue, Expression> list : node.getLists()) {
+        bind(list.getKey());
+      }
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(DictComprehension node) {
+      bind(node.getLoopVar());
+      super.visit(node);
+    }
+
+    @Override
+    public void visit(DotExpression node) {
+      // The field is not a variable.
+      visit(node.getObj());
+    }
+
+    @Override
+    public void visit(FuncallExpression node) {
+      // The name of a method is not a variable.
+      if (node.getObject() != null) {
+        visit(node.getObject());
+      } else {
+        visit(node.getFunction());
+      }
+      visitAll(node.getArguments());
+    }
   }
 
   @Override
@@ -53,7 +154,7 @@ public class FunctionDefStatement extends Statement {
     env.update(ident.getName(), new UserDefinedFunction(
         ident, FunctionSignature.WithValues.<Object, SkylarkType>create(
             args.getSignature(), defaultValues, types),
-        statements, (SkylarkEnvironment) env));
+        statements, body, (SkylarkEnvironment) env, slotIndex));
   }
 
   @Override
@@ -18,16 +18,23 @@ package com.google.devtools.build.lib.syntax;
 // (1) intern the strings, so we can use == to compare, and have .equals use the assumption.
 // Then have Argument and Parameter use Ident again instead of String as keys.
 // (2) Use Ident, not String, as keys in the Environment, which will be cleaner.
-// (3) For performance, avoid doing HashMap lookups at runtime, and compile local variable access
-// into array reference with a constant index. Variable lookups are currently a speed bottleneck,
-// as previously measured in an experiment.
 /**
  *  Syntax node for an identifier.
  */
 public final class Ident extends Expression {
 
+  /** The slot of an identifier that is not in the body of a function. */
+  static final int UNRESOLVED = -1;
+
+  /** The slot of an identifier in the body of a function that never binds its name. */
+  static final int GLOBAL = -2;
+
   private final String name;
 
+  // The index of the local variable in the frame of the enclosing function, or one of
+  // UNRESOLVED and GLOBAL. Set by FunctionDefStatement when the function is parsed.
+  private int slot = UNRESOLVED;
+
   public Ident(String name) {
     this.name = name;
   }
@@ -39,6 +46,14 @@ public final class Ident extends Expression {
     return name;
   }
 
+  int getSlot() {
+    return slot;
+  }
+
+  void setSlot(int slot) {
+    this.slot = slot;
+  }
+
   @Override
   public String toString() {
     return name;
@@ -47,6 +62,9 @@ public final class Ident extends Expression {
   @Override
   Object eval(Environment env) throws EvalException {
     try {
+      if (slot != UNRESOLVED && env instanceof SkylarkEnvironment) {
+        return ((SkylarkEnvironment) env).lookup(name, slot);
+      }
       return env.lookup(name);
     } catch (Environment.NoSuchVariableException e) {
       if (name.equals("$error$")) {
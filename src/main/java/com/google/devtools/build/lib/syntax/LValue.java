@@ -91,7 +91,7 @@ public class LValue implements Serializable {
             + "' is referenced before assignment."
             + "The variable is defined in the global scope.");
       }
-      Class<?> variableType = skylarkEnv.getVariableType(ident.getName());
+      Class<?> variableType = skylarkEnv.getVariableType(ident.getName(), ident.getSlot());
       Class<?> resultType = EvalUtils.getSkylarkType(result.getClass());
       if (variableType != null && !variableType.equals(resultType)
           && !resultType.equals(Environment.NoneType.class)
@@ -103,6 +103,8 @@ public class LValue implements Serializable {
             ident.getName(),
             EvalUtils.getDataTypeNameFromClass(variableType)));
       }
+      skylarkEnv.update(ident.getName(), ident.getSlot(), result);
+      return;
     }
     env.update(ident.getName(), result);
   }
@@ -77,6 +77,8 @@ public final class Lexer {
 
   private final List<Token> tokens = new ArrayList<>();
 
+  private final SymbolTable symbols = new SymbolTable();
+
   // The number of unclosed open-parens ("(", '{', '[') at the current point in
   // the stream. Whitespace is handled differently when this is nonzero.
   private int openParenStackDepth = 0;
@@ -428,7 +430,7 @@ public final class Lexer {
           if (c == quot) {
             // close-quote, all done.
             return new Token(TokenKind.STRING, oldPos, pos,
-                             bufferSlice(oldPos + 1, pos - 1));
+                             internedBufferSlice(oldPos + 1, pos - 1));
           }
       }
     }
@@ -498,10 +500,10 @@ public final class Lexer {
           pos++;
           break;
        default:
-          return bufferSlice(oldPos, pos);
+          return internedBufferSlice(oldPos, pos);
       }
     }
-    return bufferSlice(oldPos, pos);
+    return internedBufferSlice(oldPos, pos);
   }
 
   /**
@@ -808,4 +810,77 @@ public final class Lexer {
     return new String(this.buffer, start, end - start);
   }
 
+  /**
+   * Returns the string between the given offsets of the buffer, allocating it only the first time
+   * this lexer sees it.
+   */
+  private String internedBufferSlice(int start, int end) {
+    return symbols.intern(buffer, start, end);
+  }
+
+  /**
+   * A table of the distinct identifiers and simple string literals of a file. BUILD files use
+   * the same few names ("name", "srcs", "deps", ...) and labels over and over again, so interning
+   * them while scanning saves most of the string allocations of the lexer, and the strings that
+   * end up in the AST are shared. The String objects also cache their hash code, which makes the
+   * keyword lookup of repeated identifiers cheap.
+   */
+  private static final class SymbolTable {
+    private String[] symbols = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+
+    String intern(char[] buffer, int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + buffer[i];
+      }
+      int mask = symbols.length - 1;
+      int index = hash & mask;
+      while (symbols[index] != null) {
+        if (hashes[index] == hash && equals(symbols[index], buffer, start, end)) {
+          return symbols[index];
+        }
+        index = (index + 1) & mask;
+      }
+      String symbol = new String(buffer, start, end - start);
+      symbols[index] = symbol;
+      hashes[index] = hash;
+      if (++size * 2 > symbols.length) {
+        grow();
+      }
+      return symbol;
+    }
+
+    private static boolean equals(String symbol, char[] buffer, int start, int end) {
+      if (symbol.length() != end - start) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        if (symbol.charAt(i - start) != buffer[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void grow() {
+      String[] oldSymbols = symbols;
+      int[] oldHashes = hashes;
+      symbols = new String[oldSymbols.length * 2];
+      hashes = new int[oldSymbols.length * 2];
+      int mask = symbols.length - 1;
+      for (int i = 0; i < oldSymbols.length; i++) {
+        if (oldSymbols[i] != null) {
+          int index = oldHashes[i] & mask;
+          while (symbols[index] != null) {
+            index = (index + 1) & mask;
+          }
+          symbols[index] = oldSymbols[i];
+          hashes[index] = oldHashes[i];
+        }
+      }
+    }
+  }
+
 }
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.syntax;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
@@ -46,6 +47,18 @@ public class SkylarkEnvironment extends Environment implements Serializable {
 
   private ImmutableList<String> stackTrace;
 
+  /**
+   * For the environment of a function call, the slots of the local variables of the function, as
+   * resolved by {@link FunctionDefStatement}. Null for other environments.
+   */
+  @Nullable private final ImmutableMap<String, Integer> slotIndex;
+
+  /**
+   * For the environment of a function call, the values of the local variables of the function,
+   * indexed by slot. Variables that are not set yet are null.
+   */
+  @Nullable private final Object[] slots;
+
   @Nullable private String fileContentHashCode;
 
   /**
@@ -66,7 +79,8 @@ public class SkylarkEnvironment extends Environment implements Serializable {
     SkylarkEnvironment childEnv =
         // Always use the caller Environment's EventHandler. We cannot assume that the
         // definition Environment's EventHandler is still working properly.
-        new SkylarkEnvironment(definitionEnv, stackTrace, callerEnv.eventHandler);
+        new SkylarkEnvironment(definitionEnv, stackTrace, callerEnv.eventHandler,
+            function.getSlotIndex());
     try {
       for (String varname : callerEnv.propagatingVariables) {
         childEnv.updateAndPropagate(varname, callerEnv.lookup(varname));
@@ -81,11 +95,13 @@ public class SkylarkEnvironment extends Environment implements Serializable {
   }
 
   private SkylarkEnvironment(SkylarkEnvironment definitionEnv, ImmutableList<String> stackTrace,
-      EventHandler eventHandler) {
+      EventHandler eventHandler, ImmutableMap<String, Integer> slotIndex) {
     super(definitionEnv.getGlobalEnvironment());
     this.stackTrace = stackTrace;
     this.eventHandler = Preconditions.checkNotNull(eventHandler,
         "EventHandler cannot be null in an Environment which calls into Skylark");
+    this.slotIndex = slotIndex;
+    this.slots = new Object[slotIndex.size()];
   }
 
   /**
@@ -96,6 +112,8 @@ public class SkylarkEnvironment extends Environment implements Serializable {
     stackTrace = ImmutableList.of();
     this.eventHandler = eventHandler;
     this.fileContentHashCode = astFileContentHashCode;
+    this.slotIndex = null;
+    this.slots = null;
   }
 
   @VisibleForTesting
@@ -107,6 +125,8 @@ public class SkylarkEnvironment extends Environment implements Serializable {
     super(globalEnv);
     stackTrace = ImmutableList.of();
     this.eventHandler = globalEnv.eventHandler;
+    this.slotIndex = null;
+    this.slots = null;
   }
 
   @Override
@@ -166,7 +186,7 @@ public class SkylarkEnvironment extends Environment implements Serializable {
     if (disabledVariables.contains(varname)) {
       throw new NoSuchVariableException(varname);
     }
-    Object value = env.get(varname);
+    Object value = getLocal(varname);
     if (value == null) {
       if (parent != null && parent.hasVariable(varname)) {
         readGlobalVariables.add(varname);
@@ -177,6 +197,35 @@ public class SkylarkEnvironment extends Environment implements Serializable {
     return value;
   }
 
+  /**
+   * Like {@link #lookup(String)}, for an identifier in the body of a function that was resolved to
+   * the given slot.
+   */
+  Object lookup(String varname, int slot) throws NoSuchVariableException {
+    if (slots == null || (!disabledVariables.isEmpty() && disabledVariables.contains(varname))) {
+      return lookup(varname);
+    }
+    if (slot == Ident.GLOBAL) {
+      // The function never assigns the variable, so there is no need to remember that the global
+      // variable was read. Only propagating variables can be set locally.
+      Object value = env.isEmpty() ? null : env.get(varname);
+      return value != null ? value : parent.lookup(varname);
+    }
+    Object value = slots[slot];
+    return value != null ? value : lookup(varname);
+  }
+
+  @Nullable
+  private Object getLocal(String varname) {
+    if (slotIndex != null) {
+      Integer slot = slotIndex.get(varname);
+      if (slot != null) {
+        return slots[slot];
+      }
+    }
+    return env.get(varname);
+  }
+
   /**
    * Like <code>lookup(String)</code>, but instead of throwing an exception in
    * the case where "varname" is not defined, "defaultValue" is returned instead.
@@ -193,7 +242,23 @@ public class SkylarkEnvironment extends Environment implements Serializable {
   @Override
   public void update(String varname, Object value) {
     Preconditions.checkNotNull(value, "update(value == null)");
-    env.put(varname, value);
+    Integer slot = slotIndex != null ? slotIndex.get(varname) : null;
+    if (slot != null) {
+      slots[slot] = value;
+    } else {
+      env.put(varname, value);
+    }
+  }
+
+  /**
+   * Like {@link #update(String, Object)}, for a variable that was resolved to the given slot.
+   */
+  void update(String varname, int slot, Object value) {
+    if (slots == null || slot < 0) {
+      update(varname, value);
+    } else {
+      slots[slot] = Preconditions.checkNotNull(value, "update(value == null)");
+    }
   }
 
   /**
@@ -201,10 +266,38 @@ public class SkylarkEnvironment extends Environment implements Serializable {
    * works only in the local Environment, it doesn't check the global Environment.
    */
   public Class<?> getVariableType(String varname) {
-    Object variable = env.get(varname);
+    return getSkylarkType(getLocal(varname));
+  }
+
+  /**
+   * Like {@link #getVariableType(String)}, for a variable that was resolved to the given slot.
+   */
+  Class<?> getVariableType(String varname, int slot) {
+    if (slots == null || slot < 0) {
+      return getVariableType(varname);
+    }
+    return getSkylarkType(slots[slot]);
+  }
+
+  private static Class<?> getSkylarkType(@Nullable Object variable) {
     return variable != null ? EvalUtils.getSkylarkType(variable.getClass()) : null;
   }
 
+  @Override
+  public Set<String> getVariableNames() {
+    Set<String> vars = super.getVariableNames();
+    if (slotIndex == null) {
+      return vars;
+    }
+    vars = new HashSet<>(vars);
+    for (Map.Entry<String, Integer> entry : slotIndex.entrySet()) {
+      if (slots[entry.getValue()] != null) {
+        vars.add(entry.getKey());
+      }
+    }
+    return vars;
+  }
+
   /**
    * Removes the functions and the modules (i.e. the symbol of the module from the top level
    * Environment and the functions attached to it) from the Environment which should be present
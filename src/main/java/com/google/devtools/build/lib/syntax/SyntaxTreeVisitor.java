@@ -52,10 +52,21 @@ public class SyntaxTreeVisitor {
   }
 
   public void visit(FuncallExpression node) {
+    if (node.getObject() != null) {
+      visit(node.getObject());
+    }
     visit(node.getFunction());
     visitAll(node.getArguments());
   }
 
+  public void visit(DotExpression node) {
+    visit(node.getObj());
+    visit(node.getField());
+  }
+
+  public <V, T> void visit(Parameter<V, T> node) {
+  }
+
   public void visit(Ident node) {
   }
 
@@ -67,7 +78,7 @@ public class SyntaxTreeVisitor {
     }
   }
 
-  public void accept(DictComprehension node) {
+  public void visit(DictComprehension node) {
     visit(node.getKeyExpression());
     visit(node.getValueExpression());
     visit(node.getLoopVar().getExpression());
@@ -93,6 +104,20 @@ public class SyntaxTreeVisitor {
     visit(node.getExpression());
   }
 
+  public void visit(ForStatement node) {
+    visit(node.getVariable().getExpression());
+    visit(node.getCollection());
+    visitAll(node.block());
+  }
+
+  public void visit(LoadStatement node) {
+    visitAll(node.getSymbols());
+  }
+
+  public void visit(ReturnStatement node) {
+    visit(node.getReturnExpression());
+  }
+
   public void visit(IfStatement node) {
     for (ConditionalStatements stmt : node.getThenBlocks()) {
       visit(stmt);
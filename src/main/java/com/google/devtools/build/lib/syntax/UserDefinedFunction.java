@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.events.Location;
 
 /**
@@ -23,15 +24,20 @@ import com.google.devtools.build.lib.events.Location;
 public class UserDefinedFunction extends BaseFunction {
 
   private final ImmutableList<Statement> statements;
+  private final CompiledBlock body;
   private final SkylarkEnvironment definitionEnv;
+  private final ImmutableMap<String, Integer> slotIndex;
 
   protected UserDefinedFunction(Ident function,
       FunctionSignature.WithValues<Object, SkylarkType> signature,
-      ImmutableList<Statement> statements, SkylarkEnvironment definitionEnv) {
+      ImmutableList<Statement> statements, CompiledBlock body, SkylarkEnvironment definitionEnv,
+      ImmutableMap<String, Integer> slotIndex) {
     super(function.getName(), signature, function.getLocation());
 
     this.statements = statements;
+    this.body = body;
     this.definitionEnv = definitionEnv;
+    this.slotIndex = slotIndex;
   }
 
   public FunctionSignature.WithValues<Object, SkylarkType> getFunctionSignature() {
@@ -46,6 +52,13 @@ public class UserDefinedFunction extends BaseFunction {
     return location;
   }
 
+  /**
+   * Returns the slots of the local variables of the function, starting with its parameters.
+   */
+  ImmutableMap<String, Integer> getSlotIndex() {
+    return slotIndex;
+  }
+
 
   @Override
   public Object call(Object[] arguments, FuncallExpression ast, Environment env)
@@ -54,19 +67,12 @@ public class UserDefinedFunction extends BaseFunction {
         env, definitionEnv, this);
     ImmutableList<String> names = signature.getSignature().getNames();
 
-    // Registering the functions's arguments as variables in the local Environment
-    int i = 0;
-    for (String name : names) {
-      functionEnv.update(name, arguments[i++]);
+    // Registering the functions's arguments as variables in the local Environment. The
+    // parameters occupy the first slots.
+    for (int i = 0; i < names.size(); i++) {
+      functionEnv.update(names.get(i), i, arguments[i]);
     }
 
-    try {
-      for (Statement stmt : statements) {
-        stmt.exec(functionEnv);
-      }
-    } catch (ReturnStatement.ReturnException e) {
-      return e.getValue();
-    }
-    return Environment.NONE;
+    return body.exec(functionEnv);
   }
 }
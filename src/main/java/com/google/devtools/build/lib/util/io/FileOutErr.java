@@ -120,6 +120,16 @@ public class FileOutErr extends OutErr {
     return getFileErrorStream().getFile();
   }
 
+  /**
+   * Creates the output files now, unless they were already created, so that
+   * another process can append to them. Output that is written through this
+   * OutErr afterwards is appended after the output of that process.
+   */
+  public void openFiles() throws IOException {
+    getFileOutputStream().open();
+    getFileErrorStream().open();
+  }
+
   /**
    * Interprets the captured out content as an {@code ISO-8859-1} encoded
    * string.
@@ -183,6 +193,11 @@ public class FileOutErr extends OutErr {
      */
     abstract boolean hasRecordedOutput();
 
+    /**
+     * Creates the file this stream writes to, if it was not created yet.
+     */
+    abstract void open() throws IOException;
+
     /**
      * Returns the output this AbstractFileOutErr has recorded.
      */
@@ -229,6 +244,10 @@ public class FileOutErr extends OutErr {
       return;
     }
 
+    @Override
+    void open() {
+    }
+
 
     @Override
     public void write(byte[] b, int off, int len) {
@@ -283,11 +302,19 @@ public class FileOutErr extends OutErr {
     private OutputStream getOutputStream() throws IOException {
       // you should hold the lock before you invoke this method
       if (outputStream == null) {
-        outputStream = outputFile.getOutputStream();
+        // Truncate the file, but then append to it, so that we don't overwrite
+        // what other processes append to it (see FileOutErr#openFiles).
+        outputFile.getOutputStream().close();
+        outputStream = outputFile.getOutputStream(true);
       }
       return outputStream;
     }
 
+    @Override
+    synchronized void open() throws IOException {
+      getOutputStream();
+    }
+
     private boolean hasOutputStream() {
       return outputStream != null;
     }
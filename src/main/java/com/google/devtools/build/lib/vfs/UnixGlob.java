@@ -19,9 +19,6 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -40,7 +37,6 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Pattern;
 
 /**
  * Implementation of a subset of UNIX-style file globbing, expanding "*" and "?" as wildcards, but
@@ -134,11 +130,11 @@ public final class UnixGlob {
   }
 
   private static boolean excludedOnMatch(Path path, List<String[]> excludePatterns,
-                                         int idx, Cache<String, Pattern> cache) {
+                                         int idx) {
     for (String[] excludePattern : excludePatterns) {
       String text = path.getBaseName();
       if (idx == excludePattern.length
-          && matches(excludePattern[idx - 1], text, cache)) {
+          && matches(excludePattern[idx - 1], text)) {
         return true;
       }
     }
@@ -153,14 +149,13 @@ public final class UnixGlob {
    *        which might match {@code base}
    */
   private static List<String[]> getRelevantExcludes(
-      final Path base, List<String[]> excludePatterns, final int idx,
-      final Cache<String, Pattern> cache) {
+      final Path base, List<String[]> excludePatterns, final int idx) {
     if (excludePatterns.isEmpty()) {
       return excludePatterns;
     }
     List<String[]> list = new ArrayList<>();
     for (String[] patterns : excludePatterns) {
-      if (excludePatternMatches(patterns, idx, base, cache)) {
+      if (excludePatternMatches(patterns, idx, base)) {
         list.add(patterns);
       }
     }
@@ -172,33 +167,25 @@ public final class UnixGlob {
    * @param idx index into {@code patterns}
    */
   private static boolean excludePatternMatches(String[] patterns, int idx,
-                                               Path base,
-                                               Cache<String, Pattern> cache) {
+                                               Path base) {
     if (idx == 0) {
       return true;
     }
     String text = base.getBaseName();
-    return patterns.length > idx && matches(patterns[idx - 1], text, cache);
+    return patterns.length > idx && matches(patterns[idx - 1], text);
   }
 
   /**
-   * Calls {@link #matches(String, String, Cache) matches(pattern, str, null)}
-   */
-  public static boolean matches(String pattern, String str) {
-    return matches(pattern, str, null);
-  }
-
-  /**
-   * Returns whether {@code str} matches the glob pattern {@code pattern}. This
-   * method may use the {@code patternCache} to speed up the matching process.
+   * Returns whether {@code str} matches the glob pattern {@code pattern}, in which "*" matches any
+   * sequence of characters and "?" matches any single character.
+   *
+   * <p>The matching is done directly on the strings, without compiling the pattern or allocating
+   * anything, so it is cheap enough to be called for every directory entry.
    *
    * @param pattern a glob pattern
    * @param str the string to match
-   * @param patternCache a cache from patterns to compiled Pattern objects, or
-   *        {@code null} to skip caching
    */
-  public static boolean matches(String pattern, String str,
-      Cache<String, Pattern> patternCache) {
+  public static boolean matches(String pattern, String str) {
     if (pattern.length() == 0 || str.length() == 0) {
       return false;
     }
@@ -218,58 +205,68 @@ public final class UnixGlob {
       return false;
     }
 
+    int firstWildcard = indexOfWildcard(pattern, 0);
+    // Common case: xyz
+    if (firstWildcard == -1) {
+      return pattern.equals(str);
+    }
+    int lastIndex = pattern.length() - 1;
     // Common case: *.xyz
-    if (pattern.charAt(0) == '*' && pattern.lastIndexOf('*') == 0) {
-      return str.endsWith(pattern.substring(1));
+    if (firstWildcard == 0 && pattern.charAt(0) == '*' && indexOfWildcard(pattern, 1) == -1) {
+      return str.regionMatches(str.length() - lastIndex, pattern, 1, lastIndex);
     }
     // Common case: xyz*
-    int lastIndex = pattern.length() - 1;
-    // The first clause of this if statement is unnecessary, but is an
-    // optimization--charAt runs faster than indexOf.
-    if (pattern.charAt(lastIndex) == '*' && pattern.indexOf('*') == lastIndex) {
-      return str.startsWith(pattern.substring(0, lastIndex));
+    if (firstWildcard == lastIndex && pattern.charAt(lastIndex) == '*') {
+      return str.regionMatches(0, pattern, 0, lastIndex);
     }
+    return matchesWildcard(pattern, str);
+  }
 
-    Pattern regex = patternCache == null ? null : patternCache.getIfPresent(pattern);
-    if (regex == null) {
-      regex = makePatternFromWildcard(pattern);
-      if (patternCache != null) {
-        patternCache.put(pattern, regex);
+  private static int indexOfWildcard(String pattern, int fromIndex) {
+    for (int i = fromIndex; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '*' || c == '?') {
+        return i;
       }
     }
-    return regex.matcher(str).matches();
+    return -1;
   }
 
   /**
-   * Returns a regular expression implementing a matcher for "pattern", in which
-   * "*" and "?" are wildcards.
-   *
-   * <p>e.g. "foo*bar?.java" -> "foo.*bar.\\.java"
+   * Matches a pattern containing arbitrary wildcards. When a mismatch occurs after a "*", the
+   * "*" is made to swallow one more character and matching resumes after it; only the most recent
+   * "*" has to be retried, because any earlier one can already absorb whatever a later retry would
+   * give it.
    */
-  private static Pattern makePatternFromWildcard(String pattern) {
-    StringBuilder regexp = new StringBuilder();
-    for(int i = 0, len = pattern.length(); i < len; i++) {
-      char c = pattern.charAt(i);
-      switch(c) {
-        case '*':
-          regexp.append(".*");
-          break;
-        case '?':
-          regexp.append('.');
-          break;
-        //escape the regexp special characters that are allowed in wildcards
-        case '^': case '$': case '|': case '+':
-        case '{': case '}': case '[': case ']':
-        case '\\': case '.':
-          regexp.append('\\');
-          regexp.append(c);
-          break;
-        default:
-          regexp.append(c);
-          break;
+  private static boolean matchesWildcard(String pattern, String str) {
+    int p = 0;
+    int s = 0;
+    int starP = -1;
+    int starS = 0;
+    while (s < str.length()) {
+      if (p < pattern.length()) {
+        char c = pattern.charAt(p);
+        if (c == '*') {
+          starP = p++;
+          starS = s;
+          continue;
+        }
+        if (c == '?' || c == str.charAt(s)) {
+          p++;
+          s++;
+          continue;
+        }
+      }
+      if (starP == -1) {
+        return false;
       }
+      p = starP + 1;
+      s = ++starS;
+    }
+    while (p < pattern.length() && pattern.charAt(p) == '*') {
+      p++;
     }
-    return Pattern.compile(regexp.toString());
+    return p == pattern.length();
   }
 
   /**
@@ -537,14 +534,6 @@ public final class UnixGlob {
 
     private final Collection<Path> results =
         Collections.synchronizedSet(Sets.<Path>newTreeSet());
-    private final Cache<String, Pattern> cache = CacheBuilder.newBuilder().build(
-        new CacheLoader<String, Pattern>() {
-            @Override
-            public Pattern load(String wildcard) {
-              return makePatternFromWildcard(wildcard);
-            }
-          });
-
     private final GlobFuture result;
     private final boolean failFastOnInterrupt;
 
@@ -612,7 +601,7 @@ public final class UnixGlob {
       // (for example consider the glob [*/*.java, sub/*.java, */*.txt]).
       for (String[] splitPattern : splitPatterns) {
         queueGlob(base, baseStat.isDirectory(), splitPattern, 0, excludeDirectories,
-                  splitExcludes, 0, results, cache, dirPred, syscalls);
+                  splitExcludes, 0, results, dirPred, syscalls);
       }
 
       return result;
@@ -647,7 +636,7 @@ public final class UnixGlob {
         final boolean excludeDirectories,
         final List<String[]> excludePatterns,
         final int excludeIdx,
-        final Collection<Path> results, final Cache<String, Pattern> cache,
+        final Collection<Path> results,
         final Predicate<Path> dirPred, final FilesystemCalls syscalls) {
       enqueue(new Runnable() {
         @Override
@@ -655,7 +644,7 @@ public final class UnixGlob {
           Profiler.instance().startTask(ProfilerTask.VFS_GLOB, this);
           try {
             reallyGlob(base, baseIsDir, patternParts, idx, excludeDirectories,
-                excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
+                excludePatterns, excludeIdx, results, dirPred, syscalls);
           } catch (IOException e) {
             throw new IORuntimeException(e);
           } catch (InterruptedException e) {
@@ -691,7 +680,7 @@ public final class UnixGlob {
         boolean excludeDirectories,
         List<String[]> excludePatterns,
         int excludeIdx,
-        Collection<Path> results, Cache<String, Pattern> cache,
+        Collection<Path> results,
         Predicate<Path> dirPred,
         FilesystemCalls syscalls) throws IOException, InterruptedException {
       if (failFastOnInterrupt && Thread.interrupted()) {
@@ -704,7 +693,7 @@ public final class UnixGlob {
 
       if (idx == patternParts.length) { // Base case.
         if (!(excludeDirectories && baseIsDir) &&
-            !excludedOnMatch(base, excludePatterns, excludeIdx, cache)) {
+            !excludedOnMatch(base, excludePatterns, excludeIdx)) {
           results.add(base);
         }
 
@@ -717,14 +706,14 @@ public final class UnixGlob {
       }
 
       List<String[]> relevantExcludes
-          = getRelevantExcludes(base, excludePatterns, excludeIdx, cache);
+          = getRelevantExcludes(base, excludePatterns, excludeIdx);
       final String pattern = patternParts[idx];
 
       // ** is special: it can match nothing at all.
       // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
       if ("**".equals(pattern)) {
         queueGlob(base, baseIsDir, patternParts, idx + 1, excludeDirectories,
-            excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
+            excludePatterns, excludeIdx, results, dirPred, syscalls);
       }
 
       if (!pattern.contains("*") && !pattern.contains("?")) {
@@ -739,7 +728,7 @@ public final class UnixGlob {
         boolean childIsDir = status.isDirectory();
 
         queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-            relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
+            relevantExcludes, excludeIdx + 1, results, dirPred, syscalls);
         return;
       }
 
@@ -759,18 +748,18 @@ public final class UnixGlob {
           // Recurse without shifting the pattern.
           if (childIsDir) {
             queueGlob(child, childIsDir, patternParts, idx, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
+                relevantExcludes, excludeIdx + 1, results, dirPred, syscalls);
           }
         }
-        if (matches(pattern, text, cache)) {
+        if (matches(pattern, text)) {
           // Recurse and consume one segment of the pattern.
           if (childIsDir) {
             queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
+                relevantExcludes, excludeIdx + 1, results, dirPred, syscalls);
           } else {
             // Instead of using an async call, just repeat the base case above.
             if (idx + 1 == patternParts.length &&
-                !excludedOnMatch(child, relevantExcludes, excludeIdx + 1, cache)) {
+                !excludedOnMatch(child, relevantExcludes, excludeIdx + 1)) {
               results.add(child);
             }
           }
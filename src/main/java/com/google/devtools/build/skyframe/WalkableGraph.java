@@ -61,5 +61,16 @@ public interface WalkableGraph {
   interface WalkableGraphFactory {
     WalkableGraph prepareAndGet(Collection<String> roots, int numThreads,
         EventHandler eventHandler) throws InterruptedException;
+
+    /**
+     * Evaluates the given keys in keep-going mode and returns a graph that contains them and
+     * their transitive dependencies. Keys that were already evaluated are not evaluated again.
+     *
+     * <p>The returned graph also contains the nodes evaluated by earlier calls, as long as they
+     * were not invalidated in between, so callers that load a graph incrementally only need to
+     * request the keys that are new.
+     */
+    WalkableGraph evaluateAndGet(Iterable<SkyKey> roots, int numThreads,
+        EventHandler eventHandler) throws InterruptedException;
   }
 }
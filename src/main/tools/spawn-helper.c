@@ -0,0 +1,346 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// spawn-helper is a small, long-lived process that starts subprocesses on
+// behalf of the Blaze server. Forking a process with a tiny address space is
+// much cheaper than forking the server JVM, whose heap can be several
+// gigabytes large.
+//
+// Requests are read from stdin as sequences of NUL-terminated strings:
+//
+//   S <id> <cwd> <stdout file> <stderr file> <argc> <arg>... <envc> <env>...
+//     Starts a new process. Its stdout and stderr are appended to the given
+//     files and stdin is redirected from /dev/null. As with process-wrapper,
+//     the process runs in its own session so that all of its descendants can
+//     be killed when it exits.
+//   K <id>
+//     Kills the process group of the process started by request <id>.
+//
+// For every start request, exactly one line is written to stdout:
+//
+//   <id> s <status> <user usec> <system usec> <max rss kb>
+//     The process terminated. <status> is the exit code if the process exited
+//     normally, or 128 + the signal number if it was killed by a signal.
+//   <id> x <errno>
+//     The process could not be started.
+//
+// When stdin is closed, all running processes are killed and spawn-helper
+// exits.
+
+#define _GNU_SOURCE
+
+#include <errno.h>
+#include <fcntl.h>
+#include <pthread.h>
+#include <signal.h>
+#include <stdarg.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/resource.h>
+#include <sys/time.h>
+#include <sys/types.h>
+#include <sys/stat.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+// Not in headers on OSX.
+extern char **environ;
+
+#define DIE(args...) { \
+  fprintf(stderr, args); \
+  fprintf(stderr, " --- "); \
+  perror(NULL); \
+  fprintf(stderr, "\n"); \
+  exit(EXIT_FAILURE); \
+}
+
+#define CHECK_CALL(x) if (x != 0) { perror(#x); exit(1); }
+
+// A process started by spawn-helper that has not been reaped yet.
+struct Child {
+  char *id;
+  pid_t pid;
+  int exec_errno;  // Non-zero if execvp() failed in the child.
+  int ready;       // Set once exec_errno is known.
+  struct Child *next;
+};
+
+static struct Child *global_children = NULL;
+static int global_running = 0;
+static pthread_mutex_t global_lock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t global_cond = PTHREAD_COND_INITIALIZER;
+static pthread_mutex_t global_output_lock = PTHREAD_MUTEX_INITIALIZER;
+
+// Reads the next NUL-terminated string from stdin. Returns NULL on EOF.
+static char *ReadString() {
+  char *line = NULL;
+  size_t size = 0;
+  if (getdelim(&line, &size, '\0', stdin) == -1) {
+    free(line);
+    return NULL;
+  }
+  return line;
+}
+
+static char *ReadStringOrExit() {
+  char *result = ReadString();
+  if (result == NULL) {
+    // The server went away, so nobody is interested in the results anymore.
+    pthread_mutex_lock(&global_lock);
+    for (struct Child *c = global_children; c != NULL; c = c->next) {
+      kill(-c->pid, SIGKILL);
+    }
+    // Every response is flushed by WriteResponse. exit() would flush stdout
+    // again without locking it, and could write a response twice if WaitLoop
+    // is in the middle of writing it, so wait for that and skip the flush.
+    pthread_mutex_lock(&global_output_lock);
+    _exit(EXIT_SUCCESS);
+  }
+  return result;
+}
+
+// Reads a string vector preceded by its length. The result is NULL-terminated.
+static char **ReadStringVector() {
+  char *count_string = ReadStringOrExit();
+  int count = atoi(count_string);
+  free(count_string);
+  char **result = calloc(count + 1, sizeof(char *));
+  if (result == NULL) {
+    DIE("calloc failed");
+  }
+  for (int i = 0; i < count; ++i) {
+    result[i] = ReadStringOrExit();
+  }
+  return result;
+}
+
+static void FreeStringVector(char **vector) {
+  for (char **p = vector; *p != NULL; ++p) {
+    free(*p);
+  }
+  free(vector);
+}
+
+static void WriteResponse(const char *format, ...) {
+  va_list ap;
+  va_start(ap, format);
+  pthread_mutex_lock(&global_output_lock);
+  vfprintf(stdout, format, ap);
+  fflush(stdout);
+  pthread_mutex_unlock(&global_output_lock);
+  va_end(ap);
+}
+
+static void Redirect(const char *path, int target_fd, int flags) {
+  int fd = open(path, flags, 0666);
+  if (fd == -1 || dup2(fd, target_fd) == -1) {
+    _exit(127);
+  }
+  if (fd != target_fd) {
+    close(fd);
+  }
+}
+
+static void ClearSignalMask() {
+  // Use an empty signal mask and default signal handlers in the
+  // subprocess.
+  sigset_t sset;
+  sigemptyset(&sset);
+  sigprocmask(SIG_SETMASK, &sset, NULL);
+  for (int i = 1; i < NSIG; ++i) {
+    if (i == SIGKILL || i == SIGSTOP) continue;
+
+    struct sigaction sa = {};
+    sa.sa_handler = SIG_DFL;
+    sigemptyset(&sa.sa_mask);
+    sigaction(i, &sa, NULL);
+  }
+}
+
+// Handles a start request. The exec status is reported back through a
+// close-on-exec pipe, so that a failing execvp() can be told apart from a
+// process that exits with status 127.
+static void Spawn() {
+  char *id = ReadStringOrExit();
+  char *cwd = ReadStringOrExit();
+  char *stdout_path = ReadStringOrExit();
+  char *stderr_path = ReadStringOrExit();
+  char **argv = ReadStringVector();
+  char **envp = ReadStringVector();
+
+  int exec_pipe[2];
+  CHECK_CALL(pipe(exec_pipe));
+  CHECK_CALL(fcntl(exec_pipe[1], F_SETFD, FD_CLOEXEC));
+
+  // Hold the lock until the child is registered, so that WaitLoop cannot
+  // reap it before it knows about it.
+  pthread_mutex_lock(&global_lock);
+  pid_t pid = fork();
+  if (pid == 0) {
+    // In child.
+    close(exec_pipe[0]);
+    if (setsid() == -1) {
+      _exit(127);
+    }
+    ClearSignalMask();
+    // Force umask to include read and execute for everyone, to make
+    // output permissions predictable.
+    umask(022);
+    Redirect("/dev/null", STDIN_FILENO, O_RDONLY);
+    Redirect(stdout_path, STDOUT_FILENO, O_WRONLY | O_CREAT | O_APPEND);
+    Redirect(stderr_path, STDERR_FILENO, O_WRONLY | O_CREAT | O_APPEND);
+    int err = 0;
+    if (chdir(cwd) == 0) {
+      environ = envp;
+      execvp(argv[0], argv);  // Does not return on success.
+    }
+    err = errno;
+    while (write(exec_pipe[1], &err, sizeof(err)) == -1 && errno == EINTR) {}
+    _exit(127);
+  }
+
+  int fork_errno = errno;
+  close(exec_pipe[1]);
+  if (pid < 0) {
+    pthread_mutex_unlock(&global_lock);
+    WriteResponse("%s x %d\n", id, fork_errno);
+    close(exec_pipe[0]);
+    free(id);
+  } else {
+    struct Child *child = calloc(1, sizeof(struct Child));
+    if (child == NULL) {
+      DIE("calloc failed");
+    }
+    child->id = id;
+    child->pid = pid;
+    child->next = global_children;
+    global_children = child;
+    global_running++;
+    pthread_cond_broadcast(&global_cond);
+    pthread_mutex_unlock(&global_lock);
+
+    int err = 0;
+    ssize_t r;
+    while ((r = read(exec_pipe[0], &err, sizeof(err))) == -1 && errno == EINTR) {}
+    close(exec_pipe[0]);
+
+    pthread_mutex_lock(&global_lock);
+    child->exec_errno = r == sizeof(err) ? err : 0;
+    child->ready = 1;
+    pthread_cond_broadcast(&global_cond);
+    pthread_mutex_unlock(&global_lock);
+  }
+
+  free(cwd);
+  free(stdout_path);
+  free(stderr_path);
+  FreeStringVector(argv);
+  FreeStringVector(envp);
+}
+
+// Handles a kill request.
+static void Kill() {
+  char *id = ReadStringOrExit();
+  pthread_mutex_lock(&global_lock);
+  for (struct Child *c = global_children; c != NULL; c = c->next) {
+    if (strcmp(c->id, id) == 0) {
+      kill(-c->pid, SIGKILL);
+      break;
+    }
+  }
+  pthread_mutex_unlock(&global_lock);
+  free(id);
+}
+
+// Reaps terminated children and reports their status.
+static void *WaitLoop(void *arg) {
+  while (1) {
+    pthread_mutex_lock(&global_lock);
+    while (global_running == 0) {
+      pthread_cond_wait(&global_cond, &global_lock);
+    }
+    pthread_mutex_unlock(&global_lock);
+
+    int status = 0;
+    struct rusage usage;
+    pid_t pid = wait4(-1, &status, 0, &usage);
+    if (pid == -1) {
+      if (errno == EINTR || errno == ECHILD) continue;
+      DIE("wait4 failed");
+    }
+
+    // The child is done, but may have grandchildren.
+    kill(-pid, SIGKILL);
+
+    pthread_mutex_lock(&global_lock);
+    struct Child **link;
+    while (1) {
+      link = &global_children;
+      while (*link != NULL && (*link)->pid != pid) {
+        link = &(*link)->next;
+      }
+      if (*link == NULL || (*link)->ready) break;
+      // The list may change while we wait, so look the child up again.
+      pthread_cond_wait(&global_cond, &global_lock);
+    }
+    struct Child *child = *link;
+    if (child == NULL) {
+      pthread_mutex_unlock(&global_lock);
+      continue;
+    }
+    *link = child->next;
+    global_running--;
+    pthread_mutex_unlock(&global_lock);
+
+    if (child->exec_errno != 0) {
+      WriteResponse("%s x %d\n", child->id, child->exec_errno);
+    } else {
+      int result = WIFEXITED(status)
+          ? WEXITSTATUS(status)
+          : 128 + WTERMSIG(status);
+      WriteResponse("%s s %d %ld %ld %ld\n", child->id, result,
+                    (long) usage.ru_utime.tv_sec * 1000000 + usage.ru_utime.tv_usec,
+                    (long) usage.ru_stime.tv_sec * 1000000 + usage.ru_stime.tv_usec,
+                    (long) usage.ru_maxrss);
+    }
+    free(child->id);
+    free(child);
+  }
+  return NULL;
+}
+
+// Usage: spawn-helper
+int main(int argc, char *argv[]) {
+  // A dying server must not take us down with SIGPIPE before we had the
+  // chance to kill our children.
+  signal(SIGPIPE, SIG_IGN);
+
+  pthread_t waiter;
+  if (pthread_create(&waiter, NULL, WaitLoop, NULL) != 0) {
+    DIE("pthread_create failed");
+  }
+
+  while (1) {
+    char *command = ReadStringOrExit();
+    if (strcmp(command, "S") == 0) {
+      Spawn();
+    } else if (strcmp(command, "K") == 0) {
+      Kill();
+    } else {
+      DIE("unknown request '%s'", command);
+    }
+    free(command);
+  }
+}
@@ -323,6 +323,40 @@ public class ResourceManagerTest {
     assertFalse(rm.inUse());
   }
 
+  @Test
+  public void testBlockedRequestsAreGrantedByPriority() throws Exception {
+    assertFalse(rm.inUse());
+    acquire(0, 0, 0, 2);
+    validate(1);
+    TestThread lowPriority = new TestThread() {
+      @Override public void runTest() throws Exception {
+        rm.acquireResources(resourceOwner, ResourceSet.create(0, 0, 0, 1), 1);
+        validate(3);
+        release(0, 0, 0, 1);
+      }
+    };
+    TestThread highPriority = new TestThread() {
+      @Override public void runTest() throws Exception {
+        rm.acquireResources(resourceOwner, ResourceSet.create(0, 0, 0, 2), 10);
+        validate(2);
+        release(0, 0, 0, 2);
+      }
+    };
+    lowPriority.start();
+    while (rm.getWaitCount() < 1) {
+      Thread.yield();
+    }
+    highPriority.start();
+    while (rm.getWaitCount() < 2) {
+      Thread.yield();
+    }
+    // Although it asked last, the high priority request is granted first, and the low priority
+    // request is only granted after it has released its resources.
+    release(0, 0, 0, 2);
+    highPriority.joinAndAssertState(10000);
+    lowPriority.joinAndAssertState(10000);
+    assertFalse(rm.inUse());
+  }
 
   /**
    * Checks that that resource manager
@@ -0,0 +1,99 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.analysis;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.analysis.util.AnalysisTestCase;
+import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.vfs.Path;
+
+/**
+ * Tests for the analysis with {@code --experimental_interleave_loading_and_analysis}, where the
+ * packages of the dependencies are loaded by the analysis rather than the loading phase.
+ */
+public class InterleavedLoadingAndAnalysisTest extends AnalysisTestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    scratch.file(directories.getEmbeddedBinariesRoot().getRelative("jdk.WORKSPACE")
+        .getPathString());
+  }
+
+  private void file(String name, String... lines) throws Exception {
+    scratch.file(rootDirectory.getRelative(name).getPathString(), lines);
+  }
+
+  private FlagBuilder interleaved() {
+    return defaultFlags().with(Flag.INTERLEAVE_LOADING_AND_ANALYSIS);
+  }
+
+  private static PackageIdentifier pkg(String name) {
+    return PackageIdentifier.createInDefaultRepo(name);
+  }
+
+  public void testDependencyInAnotherPackage() throws Exception {
+    file("a/BUILD", "filegroup(name = 'a', srcs = ['//b:b'])");
+    file("b/BUILD", "filegroup(name = 'b', srcs = ['//c:file.txt'])");
+    file("c/BUILD", "exports_files(['file.txt'])");
+    file("c/file.txt");
+    update(interleaved(), "//a:a");
+
+    assertThat(getAnalysisResult().getTargetsToBuild()).hasSize(1);
+    assertNotNull(getConfiguredTarget("//b:b"));
+    ImmutableMap<PackageIdentifier, Path> packageRoots =
+        getView().setArtifactRootsOfConfiguredTargets();
+    assertThat(packageRoots.keySet()).containsAllOf(pkg("a"), pkg("b"), pkg("c"));
+    assertEquals(rootDirectory, packageRoots.get(pkg("c")));
+  }
+
+  public void testPackageRootsOnlyContainPackagesOfThisBuild() throws Exception {
+    file("a/BUILD", "filegroup(name = 'a', srcs = ['//b:b'])");
+    file("b/BUILD", "filegroup(name = 'b', srcs = [])");
+    file("unrelated/BUILD", "filegroup(name = 'unrelated', srcs = [])");
+    update(interleaved(), "//unrelated:unrelated");
+    update(interleaved(), "//a:a");
+
+    ImmutableMap<PackageIdentifier, Path> packageRoots =
+        getView().setArtifactRootsOfConfiguredTargets();
+    assertThat(packageRoots.keySet()).containsAllOf(pkg("a"), pkg("b"));
+    assertThat(packageRoots.keySet()).doesNotContain(pkg("unrelated"));
+  }
+
+  public void testMissingPackageIsAnAnalysisError() throws Exception {
+    file("a/BUILD", "filegroup(name = 'a', srcs = ['//missing:b'])");
+    reporter.removeHandler(failFastHandler);
+    update(interleaved().with(Flag.KEEP_GOING), "//a:a");
+
+    assertThat(getAnalysisResult().getTargetsToBuild()).isEmpty();
+    assertContainsEvent("no such package 'missing'");
+    assertThat(getView().setArtifactRootsOfConfiguredTargets().keySet())
+        .doesNotContain(pkg("missing"));
+  }
+
+  public void testMissingTargetFailsTheBuild() throws Exception {
+    file("a/BUILD", "filegroup(name = 'a', srcs = ['//b:missing'])");
+    file("b/BUILD");
+    reporter.removeHandler(failFastHandler);
+    try {
+      update(interleaved(), "//a:a");
+      fail();
+    } catch (ViewCreationFailedException e) {
+      assertThat(e.getMessage()).contains("Analysis of target '//a:a' failed");
+    }
+    assertContainsEvent("no such target '//b:missing'");
+  }
+}
@@ -93,6 +93,7 @@ public abstract class AnalysisTestCase extends FoundationTestCase {
   public static enum Flag {
     KEEP_GOING,
     ANALYSIS_WARNINGS_AS_ERRORS,
+    INTERLEAVE_LOADING_AND_ANALYSIS,
   }
 
   /** Helper class to make it easy to enable and disable flags. */
@@ -235,6 +236,8 @@ public abstract class AnalysisTestCase extends FoundationTestCase {
     LoadingPhaseRunner.Options loadingOptions =
         Options.getDefaults(LoadingPhaseRunner.Options.class);
     loadingOptions.loadingPhaseThreads = LOADING_PHASE_THREADS;
+    loadingOptions.interleaveLoadingAndAnalysis =
+        flags.contains(Flag.INTERLEAVE_LOADING_AND_ANALYSIS);
 
     BuildView.Options viewOptions = optionsParser.getOptions(BuildView.Options.class);
     viewOptions.keepGoing = flags.contains(Flag.KEEP_GOING);
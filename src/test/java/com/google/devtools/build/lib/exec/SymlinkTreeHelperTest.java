@@ -0,0 +1,213 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.analysis.SymlinkTreeAction;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link SymlinkTreeHelper}.
+ */
+@RunWith(JUnit4.class)
+public class SymlinkTreeHelperTest {
+  private Path execRoot;
+  private Path inputManifest;
+  private Path treeRoot;
+  private SymlinkTreeHelper helper;
+
+  @Before
+  public void setUp() throws Exception {
+    FileSystem fileSystem = new InMemoryFileSystem(new ManualClock());
+    execRoot = fileSystem.getPath("/exec");
+    inputManifest = execRoot.getRelative("bin/foo.runfiles_manifest");
+    treeRoot = execRoot.getRelative("bin/foo.runfiles");
+    FileSystemUtils.createDirectoryAndParents(treeRoot);
+    helper = new SymlinkTreeHelper(new PathFragment("bin/foo.runfiles_manifest"),
+        new PathFragment("bin/foo.runfiles"), /*filesetTree=*/false);
+  }
+
+  /**
+   * Creates the tree described by the given manifest lines by hand, like build-runfiles would, and
+   * records its manifest.
+   */
+  private void createTree(String... lines) throws IOException {
+    for (String line : lines) {
+      String[] parts = line.split(" ", 2);
+      Path link = treeRoot.getRelative(parts[0]);
+      FileSystemUtils.createDirectoryAndParents(link.getParentDirectory());
+      if (parts[1].isEmpty()) {
+        FileSystemUtils.createEmptyFile(link);
+      } else {
+        link.createSymbolicLink(new PathFragment(parts[1]));
+      }
+    }
+    FileSystemUtils.writeLinesAs(treeRoot.getChild("MANIFEST"), ISO_8859_1, lines);
+    helper.recordOutputManifest(execRoot);
+  }
+
+  @Test
+  public void testNoExistingManifest() throws Exception {
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/a /src/a");
+    assertFalse(helper.updateSymlinksIncrementally(execRoot));
+    assertFalse(treeRoot.getChild("MANIFEST").exists());
+  }
+
+  @Test
+  public void testIncrementalUpdate() throws Exception {
+    createTree("ws/a /src/a", "ws/b /src/b", "ws/dir/c /src/c", "ws/d /src/d", "ws/e ");
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1,
+        "ws/a /src/a", "ws/b /src/b2", "ws/d/f /src/f", "ws/new/g ", "ws/e ");
+
+    assertTrue(helper.updateSymlinksIncrementally(execRoot));
+
+    assertEquals(new PathFragment("/src/a"), treeRoot.getRelative("ws/a").readSymbolicLink());
+    assertEquals(new PathFragment("/src/b2"), treeRoot.getRelative("ws/b").readSymbolicLink());
+    assertEquals(new PathFragment("/src/f"), treeRoot.getRelative("ws/d/f").readSymbolicLink());
+    assertTrue(treeRoot.getRelative("ws/new/g").isFile());
+    assertTrue(treeRoot.getRelative("ws/e").isFile());
+    assertFalse(treeRoot.getRelative("ws/dir").exists());
+    assertThat(FileSystemUtils.readContent(treeRoot.getChild("MANIFEST")))
+        .isEqualTo(FileSystemUtils.readContent(inputManifest));
+  }
+
+  @Test
+  public void testUsesPreviousManifestOfAction() throws Exception {
+    createTree("ws/a /src/a");
+    treeRoot.getChild("MANIFEST").renameTo(treeRoot.getChild(SymlinkTreeAction.PREVIOUS_MANIFEST));
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/b /src/b");
+
+    assertTrue(helper.updateSymlinksIncrementally(execRoot));
+
+    assertFalse(treeRoot.getRelative("ws/a").exists());
+    assertEquals(new PathFragment("/src/b"), treeRoot.getRelative("ws/b").readSymbolicLink());
+    assertFalse(treeRoot.getChild(SymlinkTreeAction.PREVIOUS_MANIFEST).exists());
+  }
+
+  @Test
+  public void testUnexpectedTreeContentsFallsBack() throws Exception {
+    createTree("ws/dir/a /src/a");
+    FileSystemUtils.createEmptyFile(treeRoot.getRelative("ws/dir/stray"));
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/b /src/b");
+
+    assertFalse(helper.updateSymlinksIncrementally(execRoot));
+    assertFalse(treeRoot.getChild("MANIFEST").exists());
+    assertFalse(treeRoot.getChild(SymlinkTreeAction.PREVIOUS_MANIFEST).exists());
+  }
+
+  @Test
+  public void testUnrecordedManifestFallsBack() throws Exception {
+    createTree("ws/a /src/a");
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/b /src/b");
+    assertTrue(helper.updateSymlinksIncrementally(execRoot));
+
+    // E.g. written by an earlier server or another tool.
+    FileSystemUtils.writeLinesAs(treeRoot.getChild("MANIFEST"), ISO_8859_1, "ws/bb /src/bb");
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/c /src/c");
+    assertFalse(helper.updateSymlinksIncrementally(execRoot));
+    // Not even a manifest that was recreated with the same contents.
+    FileSystemUtils.deleteTree(treeRoot);
+    createTree("ws/c /src/c");
+    treeRoot.getChild("MANIFEST").delete();
+    FileSystemUtils.writeLinesAs(treeRoot.getChild("MANIFEST"), ISO_8859_1, "ws/c /src/c");
+    assertFalse(helper.updateSymlinksIncrementally(execRoot));
+  }
+
+  @Test
+  public void testSuccessiveUpdates() throws Exception {
+    createTree("ws/a /src/a");
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/b /src/b");
+    assertTrue(helper.updateSymlinksIncrementally(execRoot));
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/b /src/b", "ws/c /src/c");
+    assertTrue(helper.updateSymlinksIncrementally(execRoot));
+    assertEquals(new PathFragment("/src/c"), treeRoot.getRelative("ws/c").readSymbolicLink());
+  }
+
+  @Test
+  public void testModifiedLinkFallsBack() throws Exception {
+    createTree("ws/a /src/a", "ws/b /src/b");
+    treeRoot.getRelative("ws/b").delete();
+    treeRoot.getRelative("ws/b").createSymbolicLink(new PathFragment("/elsewhere"));
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/a /src/a", "ws/b /src/b2");
+
+    assertFalse(helper.updateSymlinksIncrementally(execRoot));
+    assertEquals(new PathFragment("/elsewhere"), treeRoot.getRelative("ws/b").readSymbolicLink());
+  }
+
+  @Test
+  public void testMissingLinkFallsBack() throws Exception {
+    createTree("ws/a /src/a", "ws/b ");
+    treeRoot.getRelative("ws/a").delete();
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/a /src/a2", "ws/b ");
+
+    assertFalse(helper.updateSymlinksIncrementally(execRoot));
+  }
+
+  @Test
+  public void testStrayFileAtNewEntryFallsBack() throws Exception {
+    createTree("ws/a /src/a");
+    treeRoot.getRelative("ws/b").createSymbolicLink(new PathFragment("/elsewhere"));
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/a /src/a", "ws/b ");
+
+    assertFalse(helper.updateSymlinksIncrementally(execRoot));
+    assertEquals(new PathFragment("/elsewhere"), treeRoot.getRelative("ws/b").readSymbolicLink());
+  }
+
+  @Test
+  public void testInvalidManifestsFallBack() throws Exception {
+    assertInvalidInputManifest("/ws/a /src/a");
+    assertInvalidInputManifest("ws/a /src/a b");
+    assertInvalidInputManifest("ws/a src/a");
+  }
+
+  private void assertInvalidInputManifest(String line) throws Exception {
+    FileSystemUtils.deleteTree(treeRoot);
+    createTree("ws/a /src/a");
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, line);
+
+    assertFalse(line, helper.updateSymlinksIncrementally(execRoot));
+    assertEquals(new PathFragment("/src/a"), treeRoot.getRelative("ws/a").readSymbolicLink());
+  }
+
+  @Test
+  public void testFilesetTreeAllowsRelativeTargets() throws Exception {
+    helper = new SymlinkTreeHelper(new PathFragment("bin/foo.runfiles_manifest"),
+        new PathFragment("bin/foo.runfiles"), /*filesetTree=*/true);
+    createTree("ws/a ../a");
+    FileSystemUtils.writeLinesAs(treeRoot.getChild("MANIFEST"), ISO_8859_1, "ws/a ../a", "meta");
+    helper.recordOutputManifest(execRoot);
+    FileSystemUtils.writeLinesAs(inputManifest, ISO_8859_1, "ws/b ../b", "meta");
+
+    assertTrue(helper.updateSymlinksIncrementally(execRoot));
+    assertFalse(treeRoot.getRelative("ws/a").exists());
+    assertEquals(new PathFragment("../b"), treeRoot.getRelative("ws/b").readSymbolicLink());
+  }
+}
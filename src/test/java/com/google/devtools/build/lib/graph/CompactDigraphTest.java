@@ -0,0 +1,186 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for {@link CompactDigraph}.
+ */
+@RunWith(JUnit4.class)
+public class CompactDigraphTest {
+
+  private static final Ordering<Integer> ORDER = Ordering.natural();
+
+  private static List<Integer> getTopologicalOrder(Digraph<Integer> graph) {
+    List<Integer> order = new ArrayList<>();
+    for (Node<Integer> node : graph.getTopologicalOrder(ORDER)) {
+      order.add(node.getLabel());
+    }
+    return order;
+  }
+
+  /**
+   * Checks that the compact subgraph has the same edges and topological order as the one
+   * extracted by {@link Digraph#extractSubgraph}.
+   */
+  private static void assertSameSubgraph(Digraph<Integer> graph, Set<Integer> subset) {
+    CompactDigraph<Integer> compact = CompactDigraph.extractSubgraph(graph, subset, ORDER);
+    assertNotNull(compact);
+    Digraph<Integer> expected = graph.extractSubgraph(subset);
+    assertEquals(expected.getNodeCount(), compact.getNodeCount());
+    assertEquals(expected.getEdgeCount(), compact.getEdgeCount());
+    assertEquals(getTopologicalOrder(expected), compact.getTopologicalOrder());
+  }
+
+  @Test
+  public void testRandomAcyclicGraphs() {
+    Random random = new Random(42);
+    for (int i = 0; i < 200; i++) {
+      int nodeCount = 1 + random.nextInt(40);
+      Digraph<Integer> graph = new Digraph<>();
+      Set<Integer> subset = new HashSet<>();
+      for (int node = 0; node < nodeCount; node++) {
+        graph.createNode(node);
+        if (random.nextBoolean()) {
+          subset.add(node);
+        }
+      }
+      int edgeCount = random.nextInt(3 * nodeCount);
+      for (int edge = 0; edge < edgeCount; edge++) {
+        int from = random.nextInt(nodeCount);
+        int to = random.nextInt(nodeCount);
+        // Edges only go to higher numbers, so the graph is acyclic.
+        if (from < to) {
+          graph.addEdge(from, to);
+        } else if (to < from) {
+          graph.addEdge(to, from);
+        }
+      }
+      assertSameSubgraph(graph, subset);
+    }
+  }
+
+  @Test
+  public void testRandomCyclicGraphs() {
+    Random random = new Random(42);
+    for (int i = 0; i < 200; i++) {
+      int nodeCount = 1 + random.nextInt(40);
+      Digraph<Integer> graph = new Digraph<>();
+      Set<Integer> subset = new HashSet<>();
+      for (int node = 0; node < nodeCount; node++) {
+        graph.createNode(node);
+        if (random.nextBoolean()) {
+          subset.add(node);
+        }
+      }
+      int edgeCount = random.nextInt(2 * nodeCount);
+      for (int edge = 0; edge < edgeCount; edge++) {
+        graph.addEdge(random.nextInt(nodeCount), random.nextInt(nodeCount));
+      }
+      if (CompactDigraph.extractSubgraph(graph, subset, ORDER) != null) {
+        assertSameSubgraph(graph, subset);
+      } else {
+        // Only happens if there is a cycle outside of the subgraph.
+        Digraph<Integer> outside = graph.clone();
+        for (int node : subset) {
+          outside.removeNode(node, false);
+        }
+        outside.removeSelfEdges();
+        assertTrue(outside.isCyclic());
+      }
+    }
+  }
+
+  @Test
+  public void testCyclesInSubgraph() {
+    Digraph<Integer> graph = new Digraph<>();
+    graph.addEdge(0, 10);
+    graph.addEdge(10, 1);
+    graph.addEdge(1, 0);
+    graph.addEdge(1, 1);
+    graph.addEdge(1, 2);
+    assertSameSubgraph(graph, ImmutableSet.of(0, 1, 2));
+  }
+
+  @Test
+  public void testSelfEdgeOutsideOfSubgraph() {
+    Digraph<Integer> graph = new Digraph<>();
+    graph.addEdge(0, 10);
+    graph.addEdge(10, 10);
+    graph.addEdge(10, 1);
+    assertSameSubgraph(graph, ImmutableSet.of(0, 1));
+  }
+
+  @Test
+  public void testCycleOutsideOfSubgraph() {
+    Digraph<Integer> graph = new Digraph<>();
+    graph.addEdge(0, 10);
+    graph.addEdge(10, 11);
+    graph.addEdge(11, 10);
+    graph.addEdge(11, 1);
+    graph.addEdge(0, 1);
+    assertNull(CompactDigraph.extractSubgraph(graph, ImmutableSet.of(0, 1), ORDER));
+    // The fallback.
+    Digraph<Integer> subgraph = graph.extractSubgraph(ImmutableSet.of(0, 1));
+    assertEquals(ImmutableList.of(0, 1), getTopologicalOrder(subgraph));
+  }
+
+  @Test
+  public void testLongPathOutsideOfSubgraph() {
+    Digraph<Integer> graph = new Digraph<>();
+    int length = 100000;
+    graph.addEdge(0, 2);
+    for (int node = 2; node < length; node++) {
+      graph.addEdge(node, node + 1);
+    }
+    graph.addEdge(length, 1);
+
+    CompactDigraph<Integer> compact =
+        CompactDigraph.extractSubgraph(graph, ImmutableSet.of(0, 1), ORDER);
+    assertEquals(1, compact.getEdgeCount());
+    assertEquals(ImmutableList.of(0, 1), compact.getTopologicalOrder());
+  }
+
+  @Test
+  public void testLabelsAreNumberedInOrder() {
+    Digraph<Integer> graph = new Digraph<>();
+    graph.addEdge(2, 1);
+    graph.createNode(0);
+    CompactDigraph<Integer> compact =
+        CompactDigraph.extractSubgraph(graph, ImmutableSet.of(2, 1, 0, 5), ORDER);
+    assertEquals(3, compact.getNodeCount());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, (int) compact.getLabel(i));
+    }
+    assertTrue(compact.getTopologicalOrder().indexOf(2) < compact.getTopologicalOrder().indexOf(1));
+  }
+}
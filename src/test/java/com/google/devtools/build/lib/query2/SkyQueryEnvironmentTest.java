@@ -0,0 +1,120 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.analysis.util.AnalysisTestUtil;
+import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.Preprocessor;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
+import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.skyframe.DiffAwareness;
+import com.google.devtools.build.lib.skyframe.PrecomputedValue;
+import com.google.devtools.build.lib.skyframe.SequencedSkyframeExecutor;
+import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
+import com.google.devtools.build.lib.testutil.FoundationTestCase;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests for {@link SkyQueryEnvironment}.
+ */
+public class SkyQueryEnvironmentTest extends FoundationTestCase {
+
+  private SkyframeExecutor skyframeExecutor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    BlazeDirectories directories = new BlazeDirectories(outputBase, outputBase, rootDirectory);
+    scratch.file(directories.getEmbeddedBinariesRoot().getRelative("jdk.WORKSPACE")
+        .getPathString());
+    ConfiguredRuleClassProvider ruleClassProvider = TestRuleClassProvider.getRuleClassProvider();
+    skyframeExecutor = SequencedSkyframeExecutor.create(reporter,
+        new PackageFactory(ruleClassProvider),
+        new TimestampGranularityMonitor(BlazeClock.instance()), directories,
+        new AnalysisTestUtil.DummyWorkspaceStatusActionFactory(directories),
+        ruleClassProvider.getBuildInfoFactories(),
+        ImmutableSet.<Path>of(),
+        ImmutableList.<DiffAwareness.Factory>of(),
+        Predicates.<PathFragment>alwaysFalse(),
+        Preprocessor.Factory.Supplier.NullSupplier.INSTANCE,
+        ImmutableMap.<SkyFunctionName, SkyFunction>of(),
+        ImmutableList.<PrecomputedValue.Injected>of());
+    skyframeExecutor.preparePackageLoading(new PathPackageLocator(rootDirectory),
+        ConstantRuleVisibility.PUBLIC, true, "", UUID.randomUUID());
+    scratch.file(rootDirectory.getRelative("a/BUILD").getPathString(),
+        "filegroup(name = 'x', srcs = ['//b:y'])");
+    scratch.file(rootDirectory.getRelative("b/BUILD").getPathString(),
+        "filegroup(name = 'y', srcs = ['//c:z'])");
+    scratch.file(rootDirectory.getRelative("c/BUILD").getPathString(),
+        "filegroup(name = 'z', srcs = [])");
+    scratch.file(rootDirectory.getRelative("d/BUILD").getPathString(),
+        "filegroup(name = 'w', srcs = ['//b:y'])");
+  }
+
+  private List<String> query(String query, String... universeScope) throws Exception {
+    SkyQueryEnvironment env = new SkyQueryEnvironment(/*keepGoing=*/false,
+        /*strictScope=*/true, /*loadingPhaseThreads=*/1, Rule.ALL_LABELS, reporter,
+        ImmutableSet.<Setting>of(), ImmutableList.<QueryFunction>of(), /*parserPrefix=*/"",
+        skyframeExecutor, ImmutableList.copyOf(universeScope));
+    List<String> result = new ArrayList<>();
+    for (Target target : env.evaluateQuery(QueryExpression.parse(query, env)).getResultSet()) {
+      result.add(target.getLabel().toString());
+    }
+    return result;
+  }
+
+  public void testTargetsInTheUniverse() throws Exception {
+    assertThat(query("deps(//a:x)", "//a:all")).containsExactly("//a:x", "//b:y", "//c:z");
+    assertThat(query("rdeps(//..., //c:z)", "//a:all"))
+        .containsExactly("//a:x", "//b:y", "//c:z");
+  }
+
+  public void testDependencyOfTheUniverseIsInTheUniverse() throws Exception {
+    assertThat(query("//c:z", "//a:all")).containsExactly("//c:z");
+    assertThat(query("deps(//b:y)", "//a:all")).containsExactly("//b:y", "//c:z");
+  }
+
+  public void testTargetOutsideOfTheUniverseIsSkipped() throws Exception {
+    assertThat(query("//d:w", "//a:all")).isEmpty();
+    assertThat(query("//...", "//b:all")).containsExactly("//b:y", "//c:z");
+    assertThat(query("//d:w", "//a:all", "//d:all")).containsExactly("//d:w");
+  }
+
+  public void testSubtractivePatternInUniverse() throws Exception {
+    assertThat(query("//...", "//...", "-//d:all")).containsExactly("//a:x", "//b:y", "//c:z");
+  }
+}
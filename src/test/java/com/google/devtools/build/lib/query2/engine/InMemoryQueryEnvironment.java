@@ -0,0 +1,212 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link QueryEnvironment} over a small graph that is kept in memory. Targets are their labels.
+ *
+ * <p>Target patterns are a label, {@code //pkg:all}, {@code //pkg/...} or {@code //...}. Only
+ * what the query engine tests need is implemented.
+ */
+final class InMemoryQueryEnvironment implements QueryEnvironment<String> {
+
+  private final Map<String, String> kinds = new LinkedHashMap<>();
+  private final Map<String, List<String>> deps = new HashMap<>();
+  private final Map<String, Set<String>> variables = new HashMap<>();
+  private final TargetNumbering<String> numbering = new TargetNumbering<>();
+
+  /**
+   * Adds a target of the given kind with the given direct dependencies. Targets are returned by
+   * patterns in the order in which they were added.
+   */
+  InMemoryQueryEnvironment addTarget(String label, String kind, String... directDeps) {
+    kinds.put(label, kind);
+    deps.put(label, ImmutableList.copyOf(directDeps));
+    return this;
+  }
+
+  @Override
+  public Set<String> getTargetsMatchingPattern(QueryExpression owner, String pattern)
+      throws QueryException {
+    Set<String> result = new LinkedHashSet<>();
+    for (String label : kinds.keySet()) {
+      if (matches(pattern, label)) {
+        result.add(label);
+      }
+    }
+    if (result.isEmpty() && !pattern.endsWith("...")) {
+      throw new QueryException(owner, "no such target '" + pattern + "'");
+    }
+    return result;
+  }
+
+  private static boolean matches(String pattern, String label) {
+    if (pattern.equals("//...")) {
+      return true;
+    } else if (pattern.endsWith("/...")) {
+      String pkg = pattern.substring(0, pattern.length() - "/...".length());
+      return label.startsWith(pkg + ":") || label.startsWith(pkg + "/");
+    } else if (pattern.endsWith(":all")) {
+      return label.startsWith(pattern.substring(0, pattern.length() - "all".length()));
+    } else {
+      return label.equals(pattern);
+    }
+  }
+
+  @Override
+  public String getOrCreate(String target) {
+    return target;
+  }
+
+  @Override
+  public Collection<String> getFwdDeps(String target) {
+    return deps.get(target);
+  }
+
+  @Override
+  public Collection<String> getReverseDeps(String target) {
+    List<String> result = new ArrayList<>();
+    for (String label : kinds.keySet()) {
+      if (deps.get(label).contains(target)) {
+        result.add(label);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Set<String> getTransitiveClosure(Set<String> targets) {
+    Set<String> visited = new LinkedHashSet<>(targets);
+    List<String> toVisit = new ArrayList<>(targets);
+    for (int i = 0; i < toVisit.size(); i++) {
+      for (String dep : getFwdDeps(toVisit.get(i))) {
+        if (visited.add(dep)) {
+          toVisit.add(dep);
+        }
+      }
+    }
+    return visited;
+  }
+
+  @Override
+  public void buildTransitiveClosure(QueryExpression caller, Set<String> targetNodes,
+      int maxDepth) {
+    // The whole graph is always loaded.
+  }
+
+  @Override
+  public Set<String> getNodesOnPath(String from, String to) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Set<String> getVariable(String name) {
+    return variables.get(name);
+  }
+
+  @Override
+  public Set<String> setVariable(String name, Set<String> value) {
+    return variables.put(name, value);
+  }
+
+  @Override
+  public void reportBuildFileError(QueryExpression expression, String msg)
+      throws QueryException {
+    throw new QueryException(expression, msg);
+  }
+
+  @Override
+  public Set<String> getBuildFiles(QueryExpression caller, Set<String> nodes) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public TargetAccessor<String> getAccessor() {
+    return new TargetAccessor<String>() {
+      @Override
+      public String getTargetKind(String target) {
+        return kinds.get(target);
+      }
+
+      @Override
+      public String getLabel(String target) {
+        return target;
+      }
+
+      @Override
+      public boolean isRule(String target) {
+        return true;
+      }
+
+      @Override
+      public boolean isTestRule(String target) {
+        return kinds.get(target).endsWith("_test");
+      }
+
+      @Override
+      public boolean isTestSuite(String target) {
+        return kinds.get(target).equals("test_suite");
+      }
+
+      @Override
+      public List<String> getLabelListAttr(QueryExpression caller, String target,
+          String attrName, String errorMsgPrefix) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public List<String> getStringListAttr(String target, String attrName) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public String getStringAttr(String target, String attrName) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Iterable<String> getAttrAsString(String target, String attrName) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public boolean isSettingEnabled(@Nonnull Setting setting) {
+    return false;
+  }
+
+  @Override
+  public Iterable<QueryFunction> getFunctions() {
+    return DEFAULT_QUERY_FUNCTIONS;
+  }
+
+  @Override
+  public TargetNumbering<String> getTargetNumbering() {
+    return numbering;
+  }
+}
@@ -0,0 +1,191 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link RegexFilterExpression}.
+ */
+@RunWith(JUnit4.class)
+public class RegexFilterExpressionTest {
+
+  /** More than RegexFilterExpression.TARGETS_PER_TASK, so that the input is split into chunks. */
+  private static final int NUM_TARGETS = 3 * 4096 + 100;
+
+  private final InMemoryQueryEnvironment env = new InMemoryQueryEnvironment();
+  private final List<String> targets = new ArrayList<>();
+
+  public RegexFilterExpressionTest() {
+    for (int i = 0; i < NUM_TARGETS; i++) {
+      String label = label(i);
+      targets.add(label);
+      env.addTarget(label, "rule");
+    }
+  }
+
+  private static String label(int i) {
+    return String.format("//p:t%05d", i);
+  }
+
+  private static int index(String label) {
+    return Integer.parseInt(label.substring("//p:t".length()));
+  }
+
+  /** A filter on the label that records the threads it runs on. */
+  private static class RecordingFilter extends RegexFilterExpression {
+    final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+    @Override
+    public String getName() {
+      return "recording_filter";
+    }
+
+    @Override
+    public int getMandatoryArguments() {
+      return 2;
+    }
+
+    @Override
+    public List<ArgumentType> getArgumentTypes() {
+      return ImmutableList.of(ArgumentType.WORD, ArgumentType.EXPRESSION);
+    }
+
+    @Override
+    protected <T> String getFilterString(QueryEnvironment<T> env, List<Argument> args, T target) {
+      threads.add(Thread.currentThread());
+      return env.getAccessor().getLabel(target);
+    }
+
+    @Override
+    protected String getPattern(List<Argument> args) {
+      return args.get(0).getWord();
+    }
+  }
+
+  private static List<Argument> args(String pattern) {
+    return ImmutableList.of(Argument.of(pattern),
+        Argument.of(new TargetLiteral("//...")));
+  }
+
+  @Test
+  public void testLargeInputIsMatchedInChunksAndKeepsItsOrder() throws Exception {
+    List<String> expected = new ArrayList<>();
+    for (String target : targets) {
+      if (index(target) % 2 == 0) {
+        expected.add(target);
+      }
+    }
+
+    RecordingFilter filter = new RecordingFilter();
+    QueryExpression caller = new TargetLiteral("//...");
+    assertThat(filter.eval(env, caller, args("[02468]$")))
+        .containsExactlyElementsIn(expected).inOrder();
+    // The chunks are matched by the thread pool only.
+    assertThat(filter.threads).isNotEmpty();
+    assertThat(filter.threads).doesNotContain(Thread.currentThread());
+
+    final List<String> streamed = new ArrayList<>();
+    filter.eval(env, caller, args("[02468]$"), new Callback<String>() {
+      @Override
+      public void process(Iterable<String> partialResult) {
+        for (String target : partialResult) {
+          streamed.add(target);
+        }
+      }
+    });
+    assertEquals(expected, streamed);
+  }
+
+  @Test
+  public void testSmallInputIsMatchedOnCallingThread() throws Exception {
+    InMemoryQueryEnvironment small = new InMemoryQueryEnvironment()
+        .addTarget("//p:a", "rule")
+        .addTarget("//p:b", "rule");
+    RecordingFilter filter = new RecordingFilter();
+    assertThat(filter.eval(small, new TargetLiteral("//..."), args(":b")))
+        .containsExactly("//p:b");
+    assertThat(filter.threads).containsExactly(Thread.currentThread());
+  }
+
+  @Test
+  public void testFailingChunkCancelsTheOthers() throws Exception {
+    // The first chunk fails once all chunks that the thread pool can run next to it have started.
+    // Those block until they are cancelled.
+    final int running = Math.min(Runtime.getRuntime().availableProcessors() - 1, 3);
+    final CountDownLatch othersStarted = new CountDownLatch(running);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger started = new AtomicInteger();
+    final AtomicInteger interrupted = new AtomicInteger();
+    RecordingFilter filter = new RecordingFilter() {
+      @Override
+      protected <T> String getFilterString(QueryEnvironment<T> env, List<Argument> args,
+          T target) {
+        int index = index(env.getAccessor().getLabel(target));
+        try {
+          if (index == 0) {
+            othersStarted.await(10, TimeUnit.SECONDS);
+            throw new IllegalStateException("bad target");
+          } else if (index % 4096 == 0) {
+            started.incrementAndGet();
+            othersStarted.countDown();
+            release.await();
+          }
+        } catch (InterruptedException e) {
+          interrupted.incrementAndGet();
+          Thread.currentThread().interrupt();
+        }
+        return null;
+      }
+    };
+    try {
+      filter.eval(env, new TargetLiteral("//..."), args("."));
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("bad target");
+    }
+    try {
+      // Every chunk that started is interrupted. A queued chunk may still start while the first
+      // one fails, but not once it has been cancelled.
+      for (int i = 0; i < 1000 && interrupted.get() < started.get(); i++) {
+        Thread.sleep(10);
+      }
+      assertThat(started.get()).isAtLeast(running);
+      assertEquals(started.get(), interrupted.get());
+      Thread.sleep(100);
+      assertEquals(started.get(), interrupted.get());
+    } finally {
+      release.countDown();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests that {@link QueryExpression#eval(QueryEnvironment, Callback)} streams the same result as
+ * {@link QueryExpression#eval(QueryEnvironment)}, without passing any element twice.
+ */
+@RunWith(JUnit4.class)
+public class StreamingEvaluationTest {
+
+  // //a:x and //d:w share their dependencies, and //c:z and //c:loop form a cycle.
+  private final InMemoryQueryEnvironment env = new InMemoryQueryEnvironment()
+      .addTarget("//a:x", "java_binary", "//b:y", "//c:z", "//b:lib")
+      .addTarget("//b:y", "java_library", "//c:z", "//b:lib")
+      .addTarget("//b:lib", "java_library", "//c:z")
+      .addTarget("//c:z", "cc_library", "//c:loop")
+      .addTarget("//c:loop", "cc_library", "//c:z")
+      .addTarget("//d:w", "java_test", "//b:y", "//a:x");
+
+  /**
+   * Evaluates the query both ways, checks that the results agree and that the callback got every
+   * element only once, and returns the result.
+   */
+  private Set<String> eval(String query) throws QueryException {
+    QueryExpression expression = QueryExpression.parse(query, env);
+    Set<String> expected = expression.eval(env);
+
+    final List<String> streamed = new ArrayList<>();
+    expression.eval(env, new Callback<String>() {
+      @Override
+      public void process(Iterable<String> partialResult) {
+        for (String target : partialResult) {
+          streamed.add(target);
+        }
+      }
+    });
+    Set<String> unique = new HashSet<>(streamed);
+    assertTrue(query + " streamed duplicates: " + streamed, unique.size() == streamed.size());
+    assertThat(unique).isEqualTo(expected);
+    return expected;
+  }
+
+  @Test
+  public void testUnion() throws Exception {
+    assertThat(eval("//a:x + //b:y")).containsExactly("//a:x", "//b:y");
+    assertThat(eval("deps(//a:x) union deps(//b:y) + //c:z"))
+        .isEqualTo(eval("deps(//a:x)"));
+    assertThat(eval("//a:x + //a:x + //c:all")).containsExactly("//a:x", "//c:z", "//c:loop");
+  }
+
+  @Test
+  public void testExcept() throws Exception {
+    assertThat(eval("deps(//a:x) - //b:y")).containsExactly("//a:x", "//b:lib", "//c:z",
+        "//c:loop");
+    assertThat(eval("deps(//d:w) except deps(//b:y) - //a:x")).containsExactly("//d:w");
+    assertThat(eval("//b:y - //... - //c:z")).isEmpty();
+  }
+
+  @Test
+  public void testIntersection() throws Exception {
+    assertThat(eval("deps(//a:x) ^ //b/...")).containsExactly("//b:y", "//b:lib");
+  }
+
+  @Test
+  public void testLet() throws Exception {
+    assertThat(eval("let v = deps(//b:y) in $v - //c:all")).containsExactly("//b:y", "//b:lib");
+    assertThat(eval("let v = //a:x in deps($v) + $v")).isEqualTo(eval("deps(//a:x)"));
+    assertThat(eval("let v = //c:z in let v = //b:y in $v")).containsExactly("//b:y");
+  }
+
+  @Test
+  public void testDeps() throws Exception {
+    assertThat(eval("deps(//a:x)")).containsExactly("//a:x", "//b:y", "//b:lib", "//c:z",
+        "//c:loop");
+    assertThat(eval("deps(//a:x + //d:w)")).hasSize(6);
+    assertThat(eval("deps(//d:w + //a:x)")).hasSize(6);
+  }
+
+  @Test
+  public void testDepsWithDepth() throws Exception {
+    assertThat(eval("deps(//a:x, 0)")).containsExactly("//a:x");
+    assertThat(eval("deps(//a:x, 1)")).containsExactly("//a:x", "//b:y", "//b:lib", "//c:z");
+    // //b:y is reached at depth 1 and again at depth 2 through //a:x.
+    assertThat(eval("deps(//d:w, 2)")).containsExactly("//d:w", "//a:x", "//b:y", "//b:lib",
+        "//c:z");
+    assertThat(eval("deps(//c:z, 5)")).containsExactly("//c:z", "//c:loop");
+  }
+
+  @Test
+  public void testRdeps() throws Exception {
+    assertThat(eval("rdeps(//..., //c:z)")).isEqualTo(
+        ImmutableSet.copyOf(env.getTargetsMatchingPattern(null, "//...")));
+    assertThat(eval("rdeps(//a:x, //b:lib)")).containsExactly("//a:x", "//b:y", "//b:lib");
+    assertThat(eval("rdeps(//b/..., //c:loop)")).containsExactly("//b:y", "//b:lib", "//c:z",
+        "//c:loop");
+  }
+
+  @Test
+  public void testRdepsWithDepth() throws Exception {
+    assertThat(eval("rdeps(//..., //c:z, 0)")).containsExactly("//c:z");
+    assertThat(eval("rdeps(//..., //b:lib, 1)")).containsExactly("//b:lib", "//a:x", "//b:y");
+    assertThat(eval("rdeps(//..., //b:lib + //b:y, 2)")).containsExactly("//b:lib", "//a:x",
+        "//b:y", "//d:w");
+  }
+
+  @Test
+  public void testKind() throws Exception {
+    assertThat(eval("kind(library, deps(//d:w))")).containsExactly("//b:y", "//b:lib", "//c:z",
+        "//c:loop");
+    assertThat(eval("kind('java_', deps(//a:x) + //d:w)")).containsExactly("//a:x", "//b:y",
+        "//b:lib", "//d:w");
+    assertThat(eval("kind(nothing, //...)")).isEmpty();
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    assertThat(eval("filter('//c', deps(//a:x))")).containsExactly("//c:z", "//c:loop");
+    assertThat(eval("filter(':[xy]$', rdeps(//..., //b:y) + //a:x)"))
+        .containsExactly("//a:x", "//b:y");
+    assertThat(eval("filter(lib, kind(java, deps(//a:x, 1) - //a:x))"))
+        .containsExactly("//b:lib");
+  }
+}
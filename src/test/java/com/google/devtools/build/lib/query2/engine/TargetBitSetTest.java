@@ -0,0 +1,164 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Tests for {@link TargetBitSet}.
+ */
+@RunWith(JUnit4.class)
+public class TargetBitSetTest {
+
+  private final TargetNumbering<String> numbering = new TargetNumbering<>();
+
+  private TargetBitSet<String> set(String... elements) {
+    return set(numbering, elements);
+  }
+
+  private static TargetBitSet<String> set(TargetNumbering<String> numbering,
+      String... elements) {
+    TargetBitSet<String> set = new TargetBitSet<>(numbering);
+    set.addAll(Arrays.asList(elements));
+    return set;
+  }
+
+  @Test
+  public void testAddRemoveContains() {
+    TargetBitSet<String> set = set();
+    assertTrue(set.add("a"));
+    assertTrue(set.add("b"));
+    assertFalse(set.add("a"));
+    assertEquals(2, set.size());
+    assertTrue(set.contains("a"));
+    assertFalse(set.contains("c"));
+    assertFalse(set.contains(1));
+
+    assertTrue(set.remove("a"));
+    assertFalse(set.remove("a"));
+    assertFalse(set.remove("never numbered"));
+    assertEquals(1, set.size());
+    assertEquals(ImmutableSet.of("b"), set);
+  }
+
+  @Test
+  public void testIterationIsInNumberingOrder() {
+    set("c", "a", "b");
+    assertThat(set("a", "b", "c")).containsExactly("c", "a", "b").inOrder();
+  }
+
+  @Test
+  public void testAddAll() {
+    TargetBitSet<String> set = set("a");
+    assertTrue(set.addAll(set("b", "c")));
+    assertFalse(set.addAll(set("a", "b")));
+    assertTrue(set.addAll(ImmutableList.of("d", "d")));
+    assertEquals(4, set.size());
+    assertEquals(ImmutableSet.of("a", "b", "c", "d"), set);
+  }
+
+  @Test
+  public void testRetainAllWithBitSet() {
+    TargetBitSet<String> set = set("a", "b", "c");
+    assertTrue(set.retainAll(set("b", "c", "d")));
+    assertEquals(2, set.size());
+    assertEquals(ImmutableSet.of("b", "c"), set);
+    assertFalse(set.retainAll(set("a", "b", "c")));
+  }
+
+  @Test
+  public void testRetainAllWithOtherCollections() {
+    TargetBitSet<String> set = set("a", "b", "c", "d");
+    assertTrue(set.retainAll(ImmutableSet.of("a", "b", "c", "x")));
+    assertTrue(set.retainAll(ImmutableList.of("b", "c", "c")));
+    // A bitset over another numbering is an ordinary collection.
+    assertTrue(set.retainAll(set(new TargetNumbering<String>(), "c", "a")));
+    assertEquals(1, set.size());
+    assertEquals(ImmutableSet.of("c"), set);
+    assertFalse(set.retainAll(ImmutableSet.of("c")));
+  }
+
+  @Test
+  public void testRemoveAllWithBitSet() {
+    TargetBitSet<String> set = set("a", "b", "c");
+    assertTrue(set.removeAll(set("b", "d")));
+    assertEquals(2, set.size());
+    assertEquals(ImmutableSet.of("a", "c"), set);
+    assertFalse(set.removeAll(set("b", "d")));
+  }
+
+  @Test
+  public void testRemoveAllWithOtherCollections() {
+    TargetBitSet<String> set = set("a", "b", "c", "d", "e");
+    assertTrue(set.removeAll(ImmutableSet.of("a", "x")));
+    // Duplicates and elements that are not in the set are ignored.
+    assertTrue(set.removeAll(ImmutableList.of("b", "b", "x")));
+    assertTrue(set.removeAll(set(new TargetNumbering<String>(), "c", "y")));
+    assertEquals(2, set.size());
+    assertEquals(ImmutableSet.of("d", "e"), set);
+    assertFalse(set.removeAll(ImmutableList.of("x")));
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    TargetBitSet<String> set = set("a", "b", "c", "d");
+    Iterator<String> it = set.iterator();
+    try {
+      it.remove();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals("a", it.next());
+    it.remove();
+    try {
+      it.remove();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals("b", it.next());
+    assertEquals("c", it.next());
+    it.remove();
+    assertEquals("d", it.next());
+    assertFalse(it.hasNext());
+
+    assertEquals(2, set.size());
+    assertEquals(ImmutableSet.of("b", "d"), set);
+    assertFalse(set.contains("a"));
+    assertTrue(set.add("a"));
+    assertEquals(3, set.size());
+  }
+
+  @Test
+  public void testClear() {
+    TargetBitSet<String> set = set("a", "b");
+    set.clear();
+    assertEquals(0, set.size());
+    assertTrue(set.isEmpty());
+    assertFalse(set.iterator().hasNext());
+  }
+}
@@ -0,0 +1,141 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.analysis.util.AnalysisTestUtil;
+import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.packages.Preprocessor;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.skyframe.DiffAwareness;
+import com.google.devtools.build.lib.skyframe.PrecomputedValue;
+import com.google.devtools.build.lib.skyframe.SequencedSkyframeExecutor;
+import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
+import com.google.devtools.build.lib.testutil.FoundationTestCase;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.common.options.Options;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests for the streamed output of {@link ProtoOutputFormatter} and
+ * {@link StreamedProtoOutputFormatter}.
+ */
+public class ProtoOutputFormatterTest extends FoundationTestCase {
+
+  private final QueryOptions options = Options.getDefaults(QueryOptions.class);
+  private List<Target> targets;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    BlazeDirectories directories = new BlazeDirectories(outputBase, outputBase, rootDirectory);
+    scratch.file(directories.getEmbeddedBinariesRoot().getRelative("jdk.WORKSPACE")
+        .getPathString());
+    ConfiguredRuleClassProvider ruleClassProvider = TestRuleClassProvider.getRuleClassProvider();
+    SkyframeExecutor skyframeExecutor = SequencedSkyframeExecutor.create(reporter,
+        new PackageFactory(ruleClassProvider),
+        new TimestampGranularityMonitor(BlazeClock.instance()), directories,
+        new AnalysisTestUtil.DummyWorkspaceStatusActionFactory(directories),
+        ruleClassProvider.getBuildInfoFactories(),
+        ImmutableSet.<Path>of(),
+        ImmutableList.<DiffAwareness.Factory>of(),
+        Predicates.<PathFragment>alwaysFalse(),
+        Preprocessor.Factory.Supplier.NullSupplier.INSTANCE,
+        ImmutableMap.<SkyFunctionName, SkyFunction>of(),
+        ImmutableList.<PrecomputedValue.Injected>of());
+    skyframeExecutor.preparePackageLoading(new PathPackageLocator(rootDirectory),
+        ConstantRuleVisibility.PUBLIC, true, "", UUID.randomUUID());
+    scratch.file(rootDirectory.getRelative("a/BUILD").getPathString(),
+        "genrule(name = 'gen', srcs = ['in.txt'], outs = ['out.txt'], cmd = 'cp $< $@')",
+        "filegroup(name = 'group', srcs = [':gen', 'other.txt'])",
+        "package_group(name = 'friends', packages = ['//a/...'])");
+    targets = new ArrayList<>(skyframeExecutor.getPackageManager()
+        .getPackage(reporter, PackageIdentifier.createInDefaultRepo("a")).getTargets());
+    assertThat(targets.size()).isAtLeast(6);
+  }
+
+  /** Passes the targets to a stream callback of the formatter, in two batches. */
+  private byte[] stream(ProtoOutputFormatter formatter) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes);
+    OutputFormatterCallback<Target> callback = formatter.createStreamCallback(options, out);
+    int half = targets.size() / 2;
+    callback.start();
+    callback.process(targets.subList(0, half));
+    callback.process(targets.subList(half, targets.size()));
+    callback.close();
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  public void testProtoOutputIsOneQueryResult() throws Exception {
+    ProtoOutputFormatter formatter = new ProtoOutputFormatter();
+    byte[] streamed = stream(formatter);
+
+    // The output used to be built as a single message.
+    Build.QueryResult.Builder expected = Build.QueryResult.newBuilder();
+    for (Target target : targets) {
+      expected.addTarget(formatter.toTargetProtoBuffer(target));
+    }
+    assertEquals(expected.build(), Build.QueryResult.parseFrom(streamed));
+    assertThat(streamed).isEqualTo(expected.build().toByteArray());
+
+    ByteArrayOutputStream unordered = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(unordered);
+    formatter.outputUnordered(options, targets, out);
+    out.flush();
+    assertThat(unordered.toByteArray()).isEqualTo(streamed);
+  }
+
+  public void testStreamedProtoOutputIsDelimitedTargets() throws Exception {
+    ProtoOutputFormatter formatter = new StreamedProtoOutputFormatter();
+    InputStream in = new ByteArrayInputStream(stream(formatter));
+    List<Build.Target> parsed = new ArrayList<>();
+    Build.Target target;
+    while ((target = Build.Target.parseDelimitedFrom(in)) != null) {
+      parsed.add(target);
+    }
+
+    List<Build.Target> expected = new ArrayList<>();
+    for (Target t : targets) {
+      expected.add(formatter.toTargetProtoBuffer(t));
+    }
+    assertEquals(expected, parsed);
+  }
+}
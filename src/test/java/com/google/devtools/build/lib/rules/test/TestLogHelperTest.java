@@ -0,0 +1,136 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.test;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.rules.test.TestLogHelper.FilterTestHeaderOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for {@link TestLogHelper.FilterTestHeaderOutputStream}.
+ */
+@RunWith(JUnit4.class)
+public class TestLogHelperTest {
+
+  private static final String DELIMITER = TestLogHelper.HEADER_DELIMITER;
+
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+  private final FilterTestHeaderOutputStream filter =
+      TestLogHelper.getHeaderFilteringOutputStream(output);
+
+  private void write(String s) throws IOException {
+    byte[] bytes = s.getBytes(ISO_8859_1);
+    filter.write(bytes, 0, bytes.length);
+  }
+
+  private String output() {
+    return new String(output.toByteArray(), ISO_8859_1);
+  }
+
+  @Test
+  public void testOutputAfterDelimiterInSameChunk() throws IOException {
+    write("header\n" + DELIMITER + "\nbody\n");
+    assertTrue(filter.foundHeader());
+    assertEquals("body\n", output());
+    write("more\n");
+    assertEquals("body\nmore\n", output());
+  }
+
+  @Test
+  public void testDelimiterSplitAcrossWrites() throws IOException {
+    int half = DELIMITER.length() / 2;
+    write("header\n" + DELIMITER.substring(0, half));
+    write(DELIMITER.substring(half));
+    assertFalse(filter.foundHeader());
+    write("\nbody");
+    assertTrue(filter.foundHeader());
+    assertEquals("body", output());
+  }
+
+  @Test
+  public void testDelimiterWrittenByteByByte() throws IOException {
+    for (byte b : ("header\n" + DELIMITER + "\nbody").getBytes(ISO_8859_1)) {
+      filter.write(b);
+    }
+    assertTrue(filter.foundHeader());
+    assertEquals("body", output());
+  }
+
+  @Test
+  public void testDelimiterAsPrefixOfLongerLine() throws IOException {
+    write(DELIMITER + "-\n" + DELIMITER + " trailing\nnot the header\n");
+    assertFalse(filter.foundHeader());
+    assertEquals("", output());
+    write(DELIMITER + "\nbody");
+    assertTrue(filter.foundHeader());
+    assertEquals("body", output());
+  }
+
+  @Test
+  public void testDelimiterAsSuffixOfLongerLine() throws IOException {
+    write("x" + DELIMITER + "\n");
+    assertFalse(filter.foundHeader());
+  }
+
+  @Test
+  public void testCarriageReturnLineEndings() throws IOException {
+    // Like the line-based filter this replaced, a delimiter line ending in \r\n is not the
+    // delimiter; the whole log is then shown.
+    write("header\r\n" + DELIMITER + "\r\nbody\r\n");
+    assertFalse(filter.foundHeader());
+    assertEquals("", output());
+    // A \r\n line does not break the detection of a later delimiter line.
+    write(DELIMITER + "\nbody\r\n");
+    assertTrue(filter.foundHeader());
+    assertEquals("body\r\n", output());
+  }
+
+  @Test
+  public void testNonAsciiBytes() throws IOException {
+    // Bytes above 0x7f are negative in Java; none of them may be taken for '-' or '\n'.
+    byte[] input = ("\u00e9\u00ff\n-\u00ad\n" + DELIMITER + "\n\u00ff\u0080body")
+        .getBytes(ISO_8859_1);
+    filter.write(input, 0, input.length);
+    assertTrue(filter.foundHeader());
+    assertArrayEquals(new byte[] {(byte) 0xff, (byte) 0x80, 'b', 'o', 'd', 'y'},
+        output.toByteArray());
+  }
+
+  @Test
+  public void testOffsetAndLengthAreRespected() throws IOException {
+    byte[] input = ("ignored" + DELIMITER + "\nbody ignored").getBytes(ISO_8859_1);
+    filter.write(input, "ignored".length(), DELIMITER.length() + "\nbody".length());
+    assertTrue(filter.foundHeader());
+    assertEquals("body", output());
+  }
+
+  @Test
+  public void testNoHeader() throws IOException {
+    write("line one\nline two\n" + DELIMITER.substring(1) + "\n");
+    write(DELIMITER);
+    assertFalse(filter.foundHeader());
+    assertEquals("", output());
+  }
+}
@@ -0,0 +1,192 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.analysis.util.AnalysisTestUtil;
+import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.packages.Preprocessor;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.testutil.FoundationTestCase;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+
+import java.util.UUID;
+
+/**
+ * Tests for {@link SerializedPackageCache} and its use by {@link PackageFunction}. Each call to
+ * {@link #newServer} simulates a server restart: the new executor shares nothing with the old one
+ * but the file system.
+ */
+public class SerializedPackageCacheTest extends FoundationTestCase {
+
+  private BlazeDirectories directories;
+  private SkyframeExecutor skyframeExecutor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directories = new BlazeDirectories(outputBase, outputBase, rootDirectory);
+    scratch.file(directories.getEmbeddedBinariesRoot().getRelative("jdk.WORKSPACE")
+        .getPathString());
+  }
+
+  private void newServer() throws Exception {
+    ConfiguredRuleClassProvider ruleClassProvider = TestRuleClassProvider.getRuleClassProvider();
+    skyframeExecutor = SequencedSkyframeExecutor.create(reporter,
+        new PackageFactory(ruleClassProvider),
+        new TimestampGranularityMonitor(BlazeClock.instance()), directories,
+        new AnalysisTestUtil.DummyWorkspaceStatusActionFactory(directories),
+        ruleClassProvider.getBuildInfoFactories(),
+        ImmutableSet.<Path>of(),
+        ImmutableList.<DiffAwareness.Factory>of(),
+        Predicates.<PathFragment>alwaysFalse(),
+        Preprocessor.Factory.Supplier.NullSupplier.INSTANCE,
+        ImmutableMap.<SkyFunctionName, SkyFunction>of(),
+        ImmutableList.<PrecomputedValue.Injected>of());
+    skyframeExecutor.preparePackageLoading(new PathPackageLocator(rootDirectory),
+        ConstantRuleVisibility.PUBLIC, true, "", UUID.randomUUID());
+    skyframeExecutor.setSerializedPackageCacheEnabled(true);
+  }
+
+  private Path file(String name, String... lines) throws Exception {
+    return scratch.file(rootDirectory.getRelative(name).getPathString(), lines);
+  }
+
+  private Package getPackage(String name) throws Exception {
+    return skyframeExecutor.getPackageManager().getPackage(reporter,
+        PackageIdentifier.createInDefaultRepo(name));
+  }
+
+  private SerializedPackageCache cache() {
+    return skyframeExecutor.getSerializedPackageCache();
+  }
+
+  public void testHit() throws Exception {
+    file("foo/BUILD",
+        "filegroup(name = 'files', srcs = glob(['*.txt']))");
+    file("foo/a.txt");
+    newServer();
+    Package pkg = getPackage("foo");
+    assertEquals(0, cache().getHits());
+    assertEquals(1, cache().getMisses());
+
+    newServer();
+    Package cached = getPackage("foo");
+    assertEquals(1, cache().getHits());
+    assertEquals(0, cache().getMisses());
+    assertEquals(pkg.getTargets().toString(), cached.getTargets().toString());
+    assertNotNull(cached.getTarget("a.txt"));
+  }
+
+  public void testStaleGlobIsAMiss() throws Exception {
+    file("foo/BUILD",
+        "filegroup(name = 'files', srcs = glob(['*.txt']))");
+    file("foo/a.txt");
+    newServer();
+    getPackage("foo");
+
+    file("foo/b.txt");
+    newServer();
+    Package pkg = getPackage("foo");
+    assertEquals(0, cache().getHits());
+    assertEquals(1, cache().getMisses());
+    assertNotNull(pkg.getTarget("b.txt"));
+  }
+
+  public void testSubdirectoryThatBecameAPackageIsAMiss() throws Exception {
+    file("foo/BUILD",
+        "filegroup(name = 'files', srcs = ['sub/a.txt'])");
+    file("foo/sub/a.txt");
+    newServer();
+    getPackage("foo");
+
+    file("foo/sub/BUILD");
+    newServer();
+    reporter.removeHandler(failFastHandler);
+    // The label crosses a package boundary now.
+    assertTrue(getPackage("foo").containsErrors());
+    assertEquals(0, cache().getHits());
+  }
+
+  public void testPackageDefaultEnvironmentsAreNotCached() throws Exception {
+    file("foo/BUILD",
+        "package(default_compatible_with = ['//env:a'])",
+        "filegroup(name = 'files', srcs = [])");
+    newServer();
+    getPackage("foo");
+
+    newServer();
+    Package pkg = getPackage("foo");
+    assertEquals(0, cache().getHits());
+    assertEquals(1, cache().getMisses());
+    assertEquals(1, pkg.getDefaultCompatibleWith().size());
+  }
+
+  public void testGarbageCollectionDeletesLeastRecentlyUsedEntries() throws Exception {
+    Path directory = scratch.dir("/cache");
+    Path old = scratch.file("/cache/00/old", "0123456789");
+    Path recent = scratch.file("/cache/01/recent", "0123456789");
+    Path tmp = scratch.file("/cache/01/leftover.tmp1", "0123456789");
+    old.setLastModifiedTime(1000L);
+    recent.setLastModifiedTime(System.currentTimeMillis());
+    tmp.setLastModifiedTime(1000L);
+
+    new SerializedPackageCache(directory, "salt", 15).collectGarbage();
+    assertFalse(old.exists());
+    assertTrue(recent.exists());
+    assertFalse(tmp.exists());
+  }
+
+  public void testGarbageCollectionBoundsTheSize() throws Exception {
+    file("foo/BUILD", "filegroup(name = 'files', srcs = [])");
+    file("bar/BUILD", "filegroup(name = 'files', srcs = [])");
+    newServer();
+    getPackage("foo");
+    getPackage("bar");
+    Path cacheDirectory = outputBase.getChild("package_cache");
+    long size = 0;
+    for (Path file : FileSystemUtils.traverseTree(cacheDirectory, Predicates.alwaysTrue())) {
+      if (file.isFile()) {
+        size += file.getFileSize();
+      }
+    }
+
+    // A bound that only leaves room for one of the two entries.
+    SerializedPackageCache cache =
+        new SerializedPackageCache(cacheDirectory, "salt", size * 3 / 4);
+    cache.collectGarbage();
+    int entries = 0;
+    for (Path file : FileSystemUtils.traverseTree(cacheDirectory, Predicates.alwaysTrue())) {
+      if (file.isFile()) {
+        entries++;
+      }
+    }
+    assertEquals(1, entries);
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.analysis.util.AnalysisTestUtil;
+import com.google.devtools.build.lib.cmdline.ResolvedTargets;
+import com.google.devtools.build.lib.cmdline.TargetParsingException;
+import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.Preprocessor;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
+import com.google.devtools.build.lib.testutil.FoundationTestCase;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tests for {@link SkyframeTargetPatternEvaluator#preloadTargetPatterns}.
+ */
+public class SkyframeTargetPatternEvaluatorTest extends FoundationTestCase {
+
+  private TargetPatternEvaluator evaluator;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    BlazeDirectories directories = new BlazeDirectories(outputBase, outputBase, rootDirectory);
+    scratch.file(directories.getEmbeddedBinariesRoot().getRelative("jdk.WORKSPACE")
+        .getPathString());
+    ConfiguredRuleClassProvider ruleClassProvider = TestRuleClassProvider.getRuleClassProvider();
+    SkyframeExecutor skyframeExecutor = SequencedSkyframeExecutor.create(reporter,
+        new PackageFactory(ruleClassProvider),
+        new TimestampGranularityMonitor(BlazeClock.instance()), directories,
+        new AnalysisTestUtil.DummyWorkspaceStatusActionFactory(directories),
+        ruleClassProvider.getBuildInfoFactories(),
+        ImmutableSet.<Path>of(),
+        ImmutableList.<DiffAwareness.Factory>of(),
+        Predicates.<PathFragment>alwaysFalse(),
+        Preprocessor.Factory.Supplier.NullSupplier.INSTANCE,
+        ImmutableMap.<SkyFunctionName, SkyFunction>of(),
+        ImmutableList.<PrecomputedValue.Injected>of());
+    skyframeExecutor.preparePackageLoading(new PathPackageLocator(rootDirectory),
+        ConstantRuleVisibility.PUBLIC, true, "", UUID.randomUUID());
+    evaluator = skyframeExecutor.getPackageManager().getTargetPatternEvaluator();
+    scratch.file(rootDirectory.getRelative("good/BUILD").getPathString(),
+        "filegroup(name = 'x', srcs = [])");
+    reporter.removeHandler(failFastHandler);
+  }
+
+  private String getPreloadError(List<String> patterns) throws Exception {
+    try {
+      evaluator.preloadTargetPatterns(reporter, patterns, /*keepGoing=*/false);
+      fail();
+      return null;
+    } catch (TargetParsingException e) {
+      return e.getMessage();
+    }
+  }
+
+  public void testLeftMostErrorIsReported() throws Exception {
+    assertThat(getPreloadError(ImmutableList.of("//good:x", "//bad1:x", "//bad2:x")))
+        .contains("no such package 'bad1'");
+    assertThat(getPreloadError(ImmutableList.of("//bad2:x", "//good:x", "//bad1:x")))
+        .contains("no such package 'bad2'");
+  }
+
+  public void testKeepGoingReportsAllErrors() throws Exception {
+    Map<String, ResolvedTargets<Target>> result = evaluator.preloadTargetPatterns(reporter,
+        ImmutableList.of("//bad1:x", "//good:x", "//bad2:x"), /*keepGoing=*/true);
+    assertTrue(result.get("//bad1:x").hasError());
+    assertTrue(result.get("//bad2:x").hasError());
+    assertFalse(result.get("//good:x").hasError());
+    assertEquals(1, result.get("//good:x").getTargets().size());
+    assertContainsEvent("Skipping '//bad1:x'");
+    assertContainsEvent("Skipping '//bad2:x'");
+  }
+}
@@ -0,0 +1,260 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.testutil.BlazeTestUtils;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link SpawnHelper} and the protocol of the {@code spawn-helper} binary. These tests
+ * only pass on Linux, since they look at {@code /proc}.
+ */
+@RunWith(JUnit4.class)
+public class SpawnHelperTest {
+
+  private static final Map<String, String> ENV = ImmutableMap.of("PATH", "/bin:/usr/bin");
+
+  private Path binary;
+  private Path workingDirectory;
+  private Path stdout;
+  private Path stderr;
+  private SpawnHelper helper;
+
+  @Before
+  public void setUp() throws Exception {
+    JavaIoFileSystem fileSystem = new JavaIoFileSystem();
+    binary = fileSystem.getPath(BlazeTestUtils.runfilesDir()).getRelative(
+        "src/main/tools/spawn-helper");
+    workingDirectory = fileSystem.getPath(TestUtils.tmpDir()).getRelative("spawn-helper-test");
+    FileSystemUtils.deleteTree(workingDirectory);
+    FileSystemUtils.createDirectoryAndParents(workingDirectory);
+    stdout = workingDirectory.getChild("stdout");
+    stderr = workingDirectory.getChild("stderr");
+    helper = SpawnHelper.start(binary);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    helper.shutdown();
+  }
+
+  private SpawnHelper.Result run(String script) throws IOException {
+    return helper.run(ImmutableList.of("/bin/sh", "-c", script), ENV, workingDirectory, stdout,
+        stderr);
+  }
+
+  @Test
+  public void testExitStatus() throws Exception {
+    TerminationStatus status = run("exit 0").getStatus();
+    assertTrue(status.success());
+
+    status = run("exit 3").getStatus();
+    assertTrue(status.exited());
+    assertEquals(3, status.getExitCode());
+  }
+
+  @Test
+  public void testTerminatingSignal() throws Exception {
+    TerminationStatus status = run("kill -TERM $$").getStatus();
+    assertFalse(status.exited());
+    assertEquals(15, status.getTerminatingSignal());
+  }
+
+  @Test
+  public void testExecutableNotFound() throws Exception {
+    try {
+      helper.run(ImmutableList.of("/does/not/exist"), ENV, workingDirectory, stdout, stderr);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("Failed to start process");
+    }
+    // A failed exec does not affect later requests.
+    assertTrue(run("exit 0").getStatus().success());
+  }
+
+  @Test
+  public void testWorkingDirectoryAndEnvironment() throws Exception {
+    helper.run(ImmutableList.of("/bin/sh", "-c", "pwd; echo $FOO"),
+        ImmutableMap.of("FOO", "bar"), workingDirectory, stdout, stderr);
+    assertEquals(workingDirectory.getPathString() + "\nbar\n",
+        new String(FileSystemUtils.readContentAsLatin1(stdout)));
+  }
+
+  @Test
+  public void testOutputIsAppendedToFileOutErr() throws Exception {
+    FileOutErr outErr = new FileOutErr(stdout, stderr);
+    outErr.printOut("before\n");
+    outErr.openFiles();
+    run("echo out; echo err >&2");
+    outErr.printOut("after\n");
+    outErr.printErr("after\n");
+    assertEquals("before\nout\nafter\n", outErr.outAsLatin1());
+    assertEquals("err\nafter\n", outErr.errAsLatin1());
+  }
+
+  @Test
+  public void testInterruptKillsProcessTree() throws Exception {
+    final AtomicReference<SpawnHelper.Result> result = new AtomicReference<>();
+    final AtomicReference<Boolean> interrupted = new AtomicReference<>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          result.set(SpawnHelperTest.this.run("sleep 1000 & echo $!; wait"));
+          interrupted.set(Thread.currentThread().isInterrupted());
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    thread.start();
+    int sleepPid = Integer.parseInt(waitForLine(stdout));
+    thread.interrupt();
+    thread.join();
+
+    assertEquals(9, result.get().getStatus().getTerminatingSignal());
+    assertTrue(interrupted.get());
+    assertDead(sleepPid);
+  }
+
+  @Test
+  public void testGrandchildrenAreKilledWhenTheProcessExits() throws Exception {
+    run("sleep 1000 & echo $!");
+    assertDead(Integer.parseInt(firstLine(stdout)));
+  }
+
+  // The raw protocol, as seen by a client other than SpawnHelper.
+
+  @Test
+  public void testProtocol() throws Exception {
+    Process process = new ProcessBuilder(binary.getPathString()).start();
+    OutputStream requests = process.getOutputStream();
+    BufferedReader responses = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.ISO_8859_1));
+
+    writeStart(requests, "a", "exit 7");
+    assertResponse(responses.readLine(), "a", "s", "7");
+
+    writeStart(requests, "b", "kill -HUP $$");
+    assertResponse(responses.readLine(), "b", "s", "129");
+
+    writeStart(requests, "c", "exec sleep 1000");
+    write(requests, "K", "c");
+    assertResponse(responses.readLine(), "c", "s", "137");
+
+    write(requests, "S", "d", workingDirectory.getPathString(), stdout.getPathString(),
+        stderr.getPathString(), "1", "/does/not/exist", "0");
+    assertEquals("d x 2", responses.readLine());  // ENOENT
+
+    // Closing stdin kills all processes that are still running, and the helper exits.
+    stdout.delete();
+    writeStart(requests, "e", "echo $$; exec sleep 1000");
+    int sleepPid = Integer.parseInt(waitForLine(stdout));
+    requests.close();
+    assertEquals(0, process.waitFor());
+    assertDead(sleepPid);
+  }
+
+  private void writeStart(OutputStream requests, String id, String script) throws IOException {
+    write(requests, "S", id, workingDirectory.getPathString(), stdout.getPathString(),
+        stderr.getPathString(), "3", "/bin/sh", "-c", script, "1", "PATH=/bin:/usr/bin");
+  }
+
+  private static void write(OutputStream requests, String... strings) throws IOException {
+    for (String s : strings) {
+      requests.write(s.getBytes(StandardCharsets.ISO_8859_1));
+      requests.write(0);
+    }
+    requests.flush();
+  }
+
+  /**
+   * Checks a status response: the id, the kind and the status, followed by three numbers for the
+   * resource usage.
+   */
+  private static void assertResponse(String response, String id, String kind, String status) {
+    List<String> fields = ImmutableList.copyOf(response.split(" "));
+    assertEquals(response, 6, fields.size());
+    assertEquals(ImmutableList.of(id, kind, status), fields.subList(0, 3));
+    for (String field : fields.subList(3, 6)) {
+      assertTrue(response, Long.parseLong(field) >= 0);
+    }
+  }
+
+  private static String firstLine(Path file) throws IOException {
+    String content = new String(FileSystemUtils.readContentAsLatin1(file));
+    return content.substring(0, content.indexOf('\n'));
+  }
+
+  /**
+   * Waits until the given file contains a complete line, and returns it.
+   */
+  private static String waitForLine(Path file) throws Exception {
+    while (!file.exists()
+        || !new String(FileSystemUtils.readContentAsLatin1(file)).contains("\n")) {
+      Thread.sleep(10);
+    }
+    return firstLine(file);
+  }
+
+  /**
+   * Waits until the given process is gone or a zombie. Killed processes whose parent died are
+   * reaped by init, which may take a moment.
+   */
+  private static void assertDead(int pid) throws Exception {
+    JavaIoFileSystem fileSystem = new JavaIoFileSystem();
+    Path stat = fileSystem.getPath("/proc/" + pid + "/stat");
+    for (int i = 0; i < 500; i++) {
+      try {
+        String content = new String(FileSystemUtils.readContentAsLatin1(stat));
+        // The state follows the command name, which is in parentheses.
+        if (content.charAt(content.lastIndexOf(')') + 2) == 'Z') {
+          return;
+        }
+      } catch (IOException e) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    fail("Process " + pid + " is still running");
+  }
+}
@@ -168,6 +168,36 @@ public class FunctionTest extends AbstractEvaluationTestCase {
     assertEquals(2, env.lookup("c"));
   }
 
+  @Test
+  public void testFunctionDefLocalVariablesBoundByLoopsAndTuples() throws Exception {
+    List<Statement> input = parseFileForSkylark(
+        "a = 10\n"
+        + "def func(x):\n"
+        + "  s = 0\n"
+        + "  for i in [1, 2]:\n"
+        + "    s = s + i\n"
+        + "  l = [j * x for j in [1, 2]]\n"
+        + "  b, c = l\n"
+        + "  return s + b + c + j + a\n"
+        + "d = func(3)\n"
+        + "e = func(4)\n");
+    exec(input, env);
+    assertEquals(24, env.lookup("d"));
+    assertEquals(27, env.lookup("e"));
+    assertEquals(10, env.lookup("a"));
+  }
+
+  @Test
+  public void testFunctionReadsGlobalItDoesNotBind() throws Exception {
+    List<Statement> input = parseFileForSkylark(
+        "g = 5\n"
+        + "def func():\n"
+        + "  return g\n"
+        + "a = func()\n");
+    exec(input, env);
+    assertEquals(5, env.lookup("a"));
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void testSkylarkGlobalComprehensionIsAllowed() throws Exception {
@@ -198,6 +228,34 @@ public class FunctionTest extends AbstractEvaluationTestCase {
     assertEquals(1, env.lookup("b"));
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFunctionReturnFromNestedBlocks() throws Exception {
+    List<Statement> input = parseFileForSkylark(
+        "def func(n):\n"
+        + "  for i in [1, 2, 3]:\n"
+        + "    for j in [10, 20]:\n"
+        + "      if i * j == n:\n"
+        + "        return [i, j]\n"
+        + "      elif j > n:\n"
+        + "        return [0, j]\n"
+        + "      else:\n"
+        + "        pass\n"
+        + "def noreturn():\n"
+        + "  for i in [1, 2]:\n"
+        + "    if i > 5:\n"
+        + "      return i\n"
+        + "a = func(40)\n"
+        + "b = func(5)\n"
+        + "c = func(100)\n"
+        + "d = noreturn()\n");
+    exec(input, env);
+    assertThat((Iterable<Object>) env.lookup("a")).containsExactly(2, 20).inOrder();
+    assertThat((Iterable<Object>) env.lookup("b")).containsExactly(0, 10).inOrder();
+    assertEquals(Environment.NONE, env.lookup("c"));
+    assertEquals(Environment.NONE, env.lookup("d"));
+  }
+
   @Test
   public void testFunctionExecutesProperly() throws Exception {
     List<Statement> input = parseFileForSkylark(
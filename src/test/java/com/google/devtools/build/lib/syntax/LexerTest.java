@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.syntax;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.devtools.build.lib.events.Event;
@@ -421,4 +422,32 @@ public class LexerTest {
     assertEquals(s.length(), lastErrorLocation.getEndOffset());
     assertEquals("STRING(unterminated) NEWLINE EOF", values(tokens(s)));
   }
+
+  @Test
+  public void testIdentifiersAndStringsAreShared() throws Exception {
+    // Enough distinct names to make the symbol table grow.
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      input.append("name").append(i).append(" = ['//foo:bar', name, \"name\"]\n");
+    }
+    Token[] tokens = tokens(input.toString());
+    Token firstName = null;
+    Token firstLabel = null;
+    for (Token token : tokens) {
+      if (token.kind == TokenKind.IDENTIFIER && token.value.equals("name")) {
+        if (firstName == null) {
+          firstName = token;
+        }
+        assertSame(firstName.value, token.value);
+      } else if (token.kind == TokenKind.STRING && token.value.equals("//foo:bar")) {
+        if (firstLabel == null) {
+          firstLabel = token;
+        }
+        assertSame(firstLabel.value, token.value);
+      }
+    }
+    assertEquals("IDENTIFIER(name99) EQUALS LBRACKET STRING(//foo:bar) COMMA IDENTIFIER(name) "
+        + "COMMA STRING(name) RBRACKET NEWLINE EOF",
+        values(tokens("name99 = ['//foo:bar', name, \"name\"]\n")));
+  }
 }
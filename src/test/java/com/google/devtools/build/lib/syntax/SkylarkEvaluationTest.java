@@ -143,6 +143,20 @@ public class SkylarkEvaluationTest extends EvaluationTest {
     public void method(String i) {}
   }
 
+  @SkylarkModule(name = "MockOverloadedMethodClass", doc = "")
+  static final class MockOverloadedMethodClass {
+    @SuppressWarnings("unused")
+    @SkylarkCallable(doc = "")
+    public String method(String s) {
+      return "string";
+    }
+    @SuppressWarnings("unused")
+    @SkylarkCallable(doc = "")
+    public String method(Integer i) {
+      return "int";
+    }
+  }
+
   private static final ImmutableMap<String, SkylarkType> MOCK_TYPES = ImmutableMap
       .<String, SkylarkType>of("mock", SkylarkType.UNKNOWN, "Mock", SkylarkType.UNKNOWN);
 
@@ -449,6 +463,33 @@ public class SkylarkEvaluationTest extends EvaluationTest {
         "Multiple matching methods for method(string) in MockMultipleMethodClass");
   }
 
+  @Test
+  public void testJavaCallsOverloadedMethodFromOneCallSite() throws Exception {
+    env.update("mock", new MockOverloadedMethodClass());
+    List<Statement> input = parseFileForSkylark(
+          "def f(x):\n"
+        + "  return mock.method(x)\n"
+        + "a = f('a')\n"
+        + "b = f(1)\n"
+        + "c = f('c')\n", MOCK_TYPES);
+    exec(input, env);
+    assertEquals("string", env.lookup("a"));
+    assertEquals("int", env.lookup("b"));
+    assertEquals("string", env.lookup("c"));
+  }
+
+  @Test
+  public void testJavaCallsMultipleMethodAfterUniqueMatchFromOneCallSite() throws Exception {
+    env.update("mock", new MockMultipleMethodClass());
+    List<Statement> input = parseFileForSkylark(
+          "def f(x):\n"
+        + "  return mock.method(x)\n"
+        + "f(1)\n"
+        + "f('string')\n", MOCK_TYPES);
+    checkEvalError(input, env,
+        "Multiple matching methods for method(string) in MockMultipleMethodClass");
+  }
+
   @Test
   public void testJavaCallWithKwargs() throws Exception {
     List<Statement> input = parseFileForSkylark("comp = 3.compare_to(x = 4)");
@@ -286,8 +286,26 @@ public class GlobTest {
   }
 
   @Test
-  public void testMatchesCallWithNoCache() {
-    assertTrue(UnixGlob.matches("*a*b", "CaCb", null));
+  public void testMatches() {
+    assertTrue(UnixGlob.matches("*a*b", "CaCb"));
+    assertTrue(UnixGlob.matches("*a*b", "ab"));
+    assertTrue(UnixGlob.matches("a*b*c", "abbbcbc"));
+    assertTrue(UnixGlob.matches("a?c", "abc"));
+    assertTrue(UnixGlob.matches("*.java", "Foo.java"));
+    assertTrue(UnixGlob.matches("Foo*", "Foo.java"));
+    assertTrue(UnixGlob.matches("F*o*.j?va", "Foo.java"));
+    assertTrue(UnixGlob.matches("a.b", "a.b"));
+    assertTrue(UnixGlob.matches("*", ".hidden"));
+    assertTrue(UnixGlob.matches(".*", ".hidden"));
+
+    assertFalse(UnixGlob.matches("*a*b", "CaCbC"));
+    assertFalse(UnixGlob.matches("a?c", "ac"));
+    assertFalse(UnixGlob.matches("*.java", "java"));
+    assertFalse(UnixGlob.matches("*.java", "Foo.javac"));
+    assertFalse(UnixGlob.matches("Foo*", "Fo"));
+    assertFalse(UnixGlob.matches("a.b", "aab"));
+    assertFalse(UnixGlob.matches("*.b", ".b"));
+    assertFalse(UnixGlob.matches("?hidden", ".hidden"));
   }
 
   @Test